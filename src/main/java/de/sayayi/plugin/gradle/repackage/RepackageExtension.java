@@ -15,18 +15,25 @@
  */
 package de.sayayi.plugin.gradle.repackage;
 
+import de.sayayi.plugin.gradle.repackage.task.RelocateTransform;
 import de.sayayi.plugin.gradle.repackage.task.RepackageSpec;
 import de.sayayi.plugin.gradle.repackage.task.RepackageTask;
 import groovy.lang.Closure;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
+import org.gradle.api.Action;
 import org.gradle.api.Project;
+import org.gradle.api.attributes.Attribute;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.provider.Property;
 import org.gradle.util.internal.ClosureBackedAction;
 import org.jetbrains.annotations.NotNull;
 
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.CLASSES_AND_PATHS;
+import static org.gradle.api.artifacts.type.ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE;
+import static org.gradle.api.artifacts.type.ArtifactTypeDefinition.JAR_TYPE;
+
 
 /**
  * This object appears as 'repackage' in the project extensions.
@@ -37,6 +44,13 @@ import org.jetbrains.annotations.NotNull;
 @SuppressWarnings("unused")
 public abstract class RepackageExtension
 {
+  /** Attribute selecting relocated artifacts by relocation name. */
+  public static final Attribute<String> RELOCATION =
+      Attribute.of("de.sayayi.plugin.gradle.repackage.relocation", String.class);
+
+  /** Relocation attribute value for artifacts which are not relocated. */
+  public static final String NOT_RELOCATED = "none";
+
   private final @NotNull Project project;
 
 
@@ -63,6 +77,49 @@ public abstract class RepackageExtension
       task.setDescription("Repackage " + task.getDestinationName().get());
     });
 
-    return repackageTask.get().getOutputs().getFiles();
+    // only the repackaged jar or directory; class data sharing files are task outputs too but don't belong on a
+    // classpath. the task provider is mapped lazily, so the task is only created if it is part of the task graph
+    return project
+        .files(repackageTask.map(RepackageTask::getClasspathOutput))
+        .builtBy(repackageTask);
+  }
+
+
+  /**
+   * Registers an artifact transform relocating jar artifacts. Configurations requesting the {@link #RELOCATION}
+   * attribute with the given name get relocated jars:
+   * <pre>
+   * repackage.relocation('shaded') {
+   *   relocate 'org.example', 'shaded.example'
+   * }
+   *
+   * configurations.runtimeClasspath.attributes {
+   *   attribute(RepackageExtension.RELOCATION, 'shaded')
+   * }
+   * </pre>
+   * Each jar is relocated on its own, so in contrast to {@link #dependency(String, Closure)} the jars are not
+   * merged.
+   *
+   * @param name       relocation name, not {@code null}
+   * @param configure  transform parameters configuration action, not {@code null}
+   */
+  public void relocation(@NotNull String name, @NotNull Action<RelocateTransform.Parameters> configure)
+  {
+    if (NOT_RELOCATED.equals(name))
+      throw new IllegalArgumentException("relocation name must not be '" + NOT_RELOCATED + "'");
+
+    project.getDependencies().registerTransform(RelocateTransform.class, spec -> {
+      spec.getFrom()
+          .attribute(ARTIFACT_TYPE_ATTRIBUTE, JAR_TYPE)
+          .attribute(RELOCATION, NOT_RELOCATED);
+      spec.getTo()
+          .attribute(ARTIFACT_TYPE_ATTRIBUTE, JAR_TYPE)
+          .attribute(RELOCATION, name);
+
+      spec.parameters(parameters -> {
+        parameters.getStringRelocation().convention(CLASSES_AND_PATHS);
+        configure.execute(parameters);
+      });
+    });
   }
 }
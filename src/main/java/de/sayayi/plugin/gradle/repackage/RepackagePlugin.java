@@ -22,6 +22,8 @@ import org.gradle.api.Project;
 import org.gradle.util.GradleVersion;
 import org.jetbrains.annotations.NotNull;
 
+import static org.gradle.api.artifacts.type.ArtifactTypeDefinition.JAR_TYPE;
+
 
 /**
  * @author Jeroen Gremmen
@@ -45,5 +47,12 @@ public final class RepackagePlugin implements Plugin<Project>
 
     repackageExtension.getDestinationDir().convention(project.getLayout().getBuildDirectory().dir("repackage"));
     repackageExtension.getVerbose().convention(false);
+
+    // jars are not relocated, unless a relocation is requested by the consumer
+    val dependencies = project.getDependencies();
+
+    dependencies.getAttributesSchema().attribute(RepackageExtension.RELOCATION);
+    dependencies.getArtifactTypes().maybeCreate(JAR_TYPE).getAttributes()
+        .attribute(RepackageExtension.RELOCATION, RepackageExtension.NOT_RELOCATED);
   }
 }
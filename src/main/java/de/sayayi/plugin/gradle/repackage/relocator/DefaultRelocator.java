@@ -20,8 +20,10 @@ import org.codehaus.plexus.util.SelectorUtils;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Optional;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -38,6 +40,8 @@ public class DefaultRelocator implements Relocator
   private final String relocatedPathPattern;
   private final Set<String> includes;
   private final Set<String> excludes;
+  private final Set<StripOption> strip = EnumSet.noneOf(StripOption.class);
+  private final Set<String> stripAnnotations = new LinkedHashSet<>();
 
 
   public DefaultRelocator(@NotNull String pattern, String relocatedPattern) {
@@ -45,6 +49,23 @@ public class DefaultRelocator implements Relocator
   }
 
 
+  /**
+   * Creates a relocator for the given pattern. If the pattern is a regular expression enclosed in
+   * {@code %regex[...]}, a {@link RegexRelocator} is returned.
+   *
+   * @param pattern           class name pattern or regular expression, not {@code null}
+   * @param relocatedPattern  destination, may refer to capture groups if the pattern is a regular expression
+   *
+   * @return  new relocator, never {@code null}
+   */
+  public static @NotNull DefaultRelocator create(@NotNull String pattern, String relocatedPattern)
+  {
+    return RegexRelocator.isRegexPattern(pattern)
+        ? new RegexRelocator(pattern, relocatedPattern)
+        : new DefaultRelocator(pattern, relocatedPattern);
+  }
+
+
   public DefaultRelocator(@NotNull String pattern, String relocatedPattern, List<String> includes, List<String> excludes)
   {
     this.pattern = pattern.replace('/', '.');
@@ -80,6 +101,35 @@ public class DefaultRelocator implements Relocator
   }
 
 
+  /**
+   * Strips the given content from all classes relocated by this relocator.
+   *
+   * @param options  strip options
+   *
+   * @return  this relocator
+   */
+  public @NotNull DefaultRelocator strip(@NotNull StripOption... options)
+  {
+    strip.addAll(List.of(options));
+    return this;
+  }
+
+
+  /**
+   * Strips invisible annotations matching the given class name pattern (e.g. {@code org.jetbrains.annotations.*})
+   * from all classes relocated by this relocator.
+   *
+   * @param pattern  annotation class name pattern
+   *
+   * @return  this relocator
+   */
+  public @NotNull DefaultRelocator stripAnnotation(@NotNull String pattern)
+  {
+    stripAnnotations.add(pattern);
+    return this;
+  }
+
+
   private static @NotNull Set<String> normalizePatterns(Collection<String> patterns)
   {
     val normalized = new LinkedHashSet<String>();
@@ -132,30 +182,50 @@ public class DefaultRelocator implements Relocator
   }
 
 
-  @Override
-  public boolean canRelocatePath(@NotNull String path)
+  /**
+   * Tells whether the given path, without {@code .class} extension, is included and not excluded.
+   *
+   * @param path  path, not {@code null}
+   *
+   * @return  {@code true} if the path is selected for relocation, {@code false} otherwise
+   */
+  protected boolean isSelected(@NotNull String path) {
+    return isIncluded(path) && !isExcluded(path);
+  }
+
+
+  /**
+   * Matches the given path against the path pattern.
+   *
+   * @param path  path, not {@code null}
+   *
+   * @return  offset of the path pattern in the path ({@code 1} if the path starts with a slash) or {@code -1} if
+   *          the path is not relocated by this relocator
+   */
+  private int matchPath(@NotNull String path)
   {
     // If string is too short - no need to perform expensive string operations
     if (path.length() < pathPattern.length())
-      return false;
+      return -1;
 
     if (path.endsWith(".class"))
     {
       // Safeguard against strings containing only ".class"
       if (path.length() == 6)
-        return false;
+        return -1;
 
       path = path.substring(0, path.length() - 6);
     }
 
-    val pathStartsWithPattern = path.charAt(0) == '/'
-        ? path.startsWith(pathPattern, 1)
-        : path.startsWith(pathPattern);
+    val offset = path.charAt(0) == '/' ? 1 : 0;
 
-    if (pathStartsWithPattern)
-      return isIncluded(path) && !isExcluded(path);
+    return path.startsWith(pathPattern, offset) && isSelected(path) ? offset : -1;
+  }
 
-    return false;
+
+  @Override
+  public boolean canRelocatePath(@NotNull String path) {
+    return matchPath(path) >= 0;
   }
 
 
@@ -165,6 +235,28 @@ public class DefaultRelocator implements Relocator
   }
 
 
+  @Override
+  public @Nullable String tryRelocatePath(@NotNull String path)
+  {
+    val offset = matchPath(path);
+
+    return offset < 0
+        ? null
+        : path.substring(0, offset) + relocatedPathPattern + path.substring(offset + pathPattern.length());
+  }
+
+
+  @Override
+  public @Nullable String tryRelocateClass(@NotNull String className)
+  {
+    val offset = className.indexOf('/') < 0 ? matchPath(className.replace('.', '/')) : -1;
+
+    return offset < 0
+        ? null
+        : className.substring(0, offset) + relocatedPattern + className.substring(offset + pattern.length());
+  }
+
+
   @Override
   public @NotNull String relocatePath(@NotNull String path) {
     return path.replaceFirst(pathPattern, relocatedPathPattern);
@@ -212,4 +304,18 @@ public class DefaultRelocator implements Relocator
   public Set<String> getExcludes() {
     return excludes;
   }
+
+
+  @Override
+  @Input
+  public @NotNull Set<StripOption> getStrip() {
+    return strip;
+  }
+
+
+  @Override
+  @Input
+  public @NotNull Set<String> getStripAnnotations() {
+    return stripAnnotations;
+  }
 }
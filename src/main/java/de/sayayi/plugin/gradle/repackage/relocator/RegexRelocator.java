@@ -0,0 +1,260 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.relocator;
+
+import lombok.val;
+import org.gradle.api.tasks.Input;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.codehaus.plexus.util.SelectorUtils.PATTERN_HANDLER_SUFFIX;
+import static org.codehaus.plexus.util.SelectorUtils.REGEX_HANDLER_PREFIX;
+
+
+/**
+ * Relocator using a regular expression, e.g. {@code %regex[org\.(\w+)\.internal]}, which is relocated to a
+ * destination which may refer to capture groups, e.g. {@code shaded.$1.internal}.
+ * <p>
+ * The expression is matched against the beginning of class names, with {@code '.'} as package separator. Paths
+ * are matched in the same way, after converting {@code '/'} to {@code '.'} and without the file extension, so a
+ * single expression relocates both class names and resource paths. The part of the name matched by the
+ * expression is replaced by the destination; the remainder of the name is kept.
+ * <p>
+ * The expression is compiled once. Names not starting with the literal prefix of the expression are rejected
+ * without matching and match results are cached, as the same names are looked up many times while
+ * relocating.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public class RegexRelocator extends DefaultRelocator
+{
+  private static final String NOT_RELOCATED = "";
+
+  private final Pattern regex;
+  private final String replacement;
+  private final String literalPrefix;
+  private final String literalPathPrefix;
+
+  private transient Map<String,String> relocatedClasses;
+  private transient Map<String,String> relocatedPaths;
+
+
+  public RegexRelocator(@NotNull String pattern, String relocatedPattern) {
+    this(pattern, relocatedPattern, null, null);
+  }
+
+
+  public RegexRelocator(@NotNull String pattern, String relocatedPattern, List<String> includes,
+                        List<String> excludes)
+  {
+    super(pattern, relocatedPattern, includes, excludes);
+
+    val expression = isRegexPattern(pattern)
+        ? pattern.substring(REGEX_HANDLER_PREFIX.length(), pattern.length() - PATTERN_HANDLER_SUFFIX.length())
+        : pattern;
+
+    regex = Pattern.compile(expression);
+    replacement = relocatedPattern != null ? relocatedPattern.replace('/', '.') : "hidden.$0";
+    literalPrefix = getLiteralPrefix(expression);
+    literalPathPrefix = literalPrefix.replace('.', '/');
+  }
+
+
+  /**
+   * Tells whether the given relocation pattern is a regular expression, which is enclosed in
+   * {@code %regex[...]}.
+   *
+   * @param pattern  relocation pattern, not {@code null}
+   *
+   * @return  {@code true} if the pattern is a regular expression, {@code false} otherwise
+   */
+  @Contract(pure = true)
+  public static boolean isRegexPattern(@NotNull String pattern) {
+    return pattern.startsWith(REGEX_HANDLER_PREFIX) && pattern.endsWith(PATTERN_HANDLER_SUFFIX);
+  }
+
+
+  /**
+   * Returns the literal text each class name matched by the expression starts with.
+   *
+   * @return  literal class name prefix, may be empty
+   */
+  @Contract(pure = true)
+  public @NotNull String getLiteralPrefix() {
+    return literalPrefix;
+  }
+
+
+  /**
+   * Returns the literal text each path matched by the expression starts with.
+   *
+   * @return  literal path prefix, may be empty
+   */
+  @Contract(pure = true)
+  public @NotNull String getLiteralPathPrefix() {
+    return literalPathPrefix;
+  }
+
+
+  @Override
+  public boolean canRelocatePath(@NotNull String path) {
+    return tryRelocatePath(path) != null;
+  }
+
+
+  @Override
+  public @NotNull String relocatePath(@NotNull String path)
+  {
+    val relocatedPath = tryRelocatePath(path);
+    return relocatedPath != null ? relocatedPath : path;
+  }
+
+
+  @Override
+  public boolean canRelocateClass(@NotNull String className) {
+    return tryRelocateClass(className) != null;
+  }
+
+
+  @Override
+  public @NotNull String relocateClass(@NotNull String className)
+  {
+    val relocatedClassName = tryRelocateClass(className);
+    return relocatedClassName != null ? relocatedClassName : className;
+  }
+
+
+  @Override
+  public @Nullable String tryRelocateClass(@NotNull String className)
+  {
+    if (className.indexOf('/') >= 0)
+      return null;
+
+    if (!className.startsWith(literalPrefix))
+      return null;
+
+    if (relocatedClasses == null)
+      relocatedClasses = new ConcurrentHashMap<>();
+
+    val relocatedClassName = relocatedClasses.computeIfAbsent(className, name -> relocate(name, 0, name.length()));
+
+    //noinspection StringEquality
+    return relocatedClassName == NOT_RELOCATED ? null : relocatedClassName;
+  }
+
+
+  @Override
+  public @Nullable String tryRelocatePath(@NotNull String path)
+  {
+    val offset = path.startsWith("/") ? 1 : 0;
+
+    if (!path.startsWith(literalPathPrefix, offset))
+      return null;
+
+    if (relocatedPaths == null)
+      relocatedPaths = new ConcurrentHashMap<>();
+
+    val relocatedPath = relocatedPaths.computeIfAbsent(path, p -> {
+      // the file extension must not be matched by the expression
+      val extension = p.lastIndexOf('.');
+      val end = extension > p.lastIndexOf('/') ? extension : p.length();
+
+      return relocate(p, offset, end);
+    });
+
+    //noinspection StringEquality
+    return relocatedPath == NOT_RELOCATED ? null : relocatedPath;
+  }
+
+
+  /**
+   * Relocates the region of the given name between {@code start} and {@code end}. The region is matched using
+   * {@code '.'} as separator; if the name is a path, the relocated part is converted back to {@code '/'}.
+   *
+   * @return  relocated name or {@link #NOT_RELOCATED}
+   */
+  private @NotNull String relocate(@NotNull String name, int start, int end)
+  {
+    val path = name.indexOf('/', start) >= 0;
+    val matcher = regex.matcher(path ? name.substring(start, end).replace('/', '.') : name.substring(start, end));
+
+    if (!matcher.lookingAt() || !isSelected(name.substring(start, end).replace('.', '/')))
+      return NOT_RELOCATED;
+
+    val relocated = new StringBuilder(name.length() + replacement.length()).append(name, 0, start);
+    val relocatedStart = relocated.length();
+
+    matcher.appendReplacement(relocated, replacement);
+
+    if (path)
+      for(int n = relocatedStart, length = relocated.length(); n < length; n++)
+        if (relocated.charAt(n) == '.')
+          relocated.setCharAt(n, '/');
+
+    return relocated.append(name, start + matcher.end(), name.length()).toString();
+  }
+
+
+  /**
+   * Returns the literal text at the beginning of the regular expression. An escaped dot is taken as a literal
+   * package separator.
+   */
+  @Contract(pure = true)
+  private static @NotNull String getLiteralPrefix(@NotNull String expression)
+  {
+    // an alternative may start with anything
+    if (expression.indexOf('|') >= 0)
+      return "";
+
+    val prefix = new StringBuilder();
+
+    for(int n = expression.startsWith("^") ? 1 : 0, length = expression.length(); n < length; n++)
+    {
+      val c = expression.charAt(n);
+
+      if (c == '\\' && n + 1 < length && expression.charAt(n + 1) == '.')
+      {
+        prefix.append('.');
+        n++;
+      }
+      else if (Character.isLetterOrDigit(c) || c == '_' || c == '-')
+        prefix.append(c);
+      else
+      {
+        // the last character is optional
+        if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0)
+          prefix.setLength(prefix.length() - 1);
+
+        break;
+      }
+    }
+
+    return prefix.toString();
+  }
+
+
+  @Input
+  public @NotNull String getReplacement() {
+    return replacement;
+  }
+}
@@ -15,8 +15,12 @@
  */
 package de.sayayi.plugin.gradle.repackage.relocator;
 
+import org.gradle.api.tasks.Input;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
 
 
 public interface Relocator
@@ -35,4 +39,60 @@ public interface Relocator
 
   @Contract(pure = true)
   @NotNull String relocateClass(@NotNull String className);
+
+
+  /**
+   * Relocates the given path if this relocator matches it. This is equivalent to calling
+   * {@link #canRelocatePath(String)} followed by {@link #relocatePath(String)}, but allows implementations to
+   * match the path only once.
+   *
+   * @param path  path, not {@code null}
+   *
+   * @return  relocated path or {@code null} if this relocator doesn't relocate the path
+   */
+  @Contract(pure = true)
+  default @Nullable String tryRelocatePath(@NotNull String path) {
+    return canRelocatePath(path) ? relocatePath(path) : null;
+  }
+
+
+  /**
+   * Relocates the given class name if this relocator matches it. This is equivalent to calling
+   * {@link #canRelocateClass(String)} followed by {@link #relocateClass(String)}, but allows implementations to
+   * match the class name only once.
+   *
+   * @param className  class name, not {@code null}
+   *
+   * @return  relocated class name or {@code null} if this relocator doesn't relocate the class name
+   */
+  @Contract(pure = true)
+  default @Nullable String tryRelocateClass(@NotNull String className) {
+    return canRelocateClass(className) ? relocateClass(className) : null;
+  }
+
+
+  /**
+   * Returns the content to be stripped from classes relocated by this relocator, in addition to the content
+   * stripped from all classes.
+   *
+   * @return  strip options, never {@code null}
+   */
+  @Input
+  @Contract(pure = true)
+  default @NotNull Set<StripOption> getStrip() {
+    return Set.of();
+  }
+
+
+  /**
+   * Returns the patterns of invisible annotations to be stripped from classes relocated by this relocator, in
+   * addition to the annotations stripped from all classes.
+   *
+   * @return  annotation class name patterns, never {@code null}
+   */
+  @Input
+  @Contract(pure = true)
+  default @NotNull Set<String> getStripAnnotations() {
+    return Set.of();
+  }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.relocator;
+
+
+/**
+ * Class file content which can be stripped while classes are remapped.
+ *
+ * @author Jeroen Gremmen
+ */
+public enum StripOption
+{
+  /** Local variable tables, local variable type tables and local variable type annotations. */
+  LOCAL_VARIABLES,
+
+  /** Line number tables. Stack traces will no longer contain line numbers. */
+  LINE_NUMBERS,
+
+  /** Source file attribute. Stack traces will no longer contain source file names. */
+  SOURCE_FILE,
+
+  /** All annotations with retention policy {@code CLASS}, which are not visible at runtime. */
+  INVISIBLE_ANNOTATIONS
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.tools.zip.Zip64Mode.AsNeeded;
+
+
+/**
+ * Archive writer using Ant's {@link ZipOutputStream}.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see ArchiveWriterType#ANT
+ */
+final class AntArchiveWriter implements ArchiveWriter
+{
+  private final ZipOutputStream zipOutputStream;
+
+
+  AntArchiveWriter(@NotNull File archiveFile, int defaultMethod) throws IOException
+  {
+    zipOutputStream = new ZipOutputStream(archiveFile);
+    zipOutputStream.setEncoding(UTF_8.name());
+    zipOutputStream.setUseZip64(AsNeeded);
+    zipOutputStream.setMethod(defaultMethod);
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) throws IOException
+  {
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putNextEntry(entry);
+    zipOutputStream.write(data, 0, length);
+    zipOutputStream.closeEntry();
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+  {
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putNextEntry(entry);
+    data.writeTo(zipOutputStream);
+    zipOutputStream.closeEntry();
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    zipOutputStream.close();
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import jdk.jfr.*;
+
+
+/**
+ * Flight recorder event, emitted for each input archive processed by {@link RepackageCopyAction}.
+ *
+ * @author Jeroen Gremmen
+ */
+@Name("de.sayayi.repackage.Archive")
+@Label("Repackage Archive")
+@Category({ "Gradle", "Repackage" })
+@Description("Input archive processed by a repackage task")
+@StackTrace(false)
+final class ArchiveEvent extends Event
+{
+  @Label("Archive")
+  String archive;
+
+  @Label("Archive Size")
+  @DataAmount
+  long archiveSize;
+
+  @Label("Entries")
+  @Description("Number of archive entries passing the class filter")
+  int entries;
+}
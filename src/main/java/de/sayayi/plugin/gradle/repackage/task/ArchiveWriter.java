@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * Writes complete entries to a zip archive, as handed over by {@link WriteBehindZipOutputStream}.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see ArchiveWriterType
+ */
+interface ArchiveWriter extends Closeable
+{
+  /**
+   * Writes an entry.
+   *
+   * @param entry   entry, not {@code null}
+   * @param level   deflate level to be used, if the entry is deflated
+   * @param data    uncompressed entry data, not {@code null}
+   * @param length  number of bytes in {@code data}
+   */
+  void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) throws IOException;
+
+
+  /**
+   * Writes an entry which is too large to be handed over in a byte array.
+   *
+   * @param entry  entry, not {@code null}
+   * @param level  deflate level to be used, if the entry is deflated
+   * @param data   uncompressed entry data, not {@code null}
+   */
+  void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException;
+
+
+  /**
+   * Completes and closes the archive.
+   */
+  @Override
+  void close() throws IOException;
+}
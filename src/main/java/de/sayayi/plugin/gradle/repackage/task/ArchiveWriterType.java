@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Implementation used to write the repackaged archive.
+ * <p>
+ * All implementations receive complete entries, so the archive is always written sequentially. They differ in
+ * the way the bytes reach the file system, which affects the number of system calls issued per entry.
+ *
+ * @author Jeroen Gremmen
+ */
+public enum ArchiveWriterType
+{
+  /**
+   * Built-in writer, which writes local headers with known sizes and checksums and collects all output in a
+   * large buffer, which is written to a {@link java.nio.channels.FileChannel FileChannel} once it is full.
+   */
+  CHANNEL {
+    @Override
+    @NotNull ArchiveWriter createWriter(@NotNull File archiveFile, int defaultMethod,
+                                        @NotNull MemoryBudget memoryBudget) throws IOException {
+      return new ZipArchiveWriter(archiveFile, defaultMethod, memoryBudget);
+    }
+  },
+
+
+  /** Ant's {@code ZipOutputStream}, writing through a {@link java.io.RandomAccessFile RandomAccessFile}. */
+  ANT {
+    @Override
+    @NotNull ArchiveWriter createWriter(@NotNull File archiveFile, int defaultMethod,
+                                        @NotNull MemoryBudget memoryBudget) throws IOException {
+      return new AntArchiveWriter(archiveFile, defaultMethod);
+    }
+  },
+
+
+  /** Commons Compress' {@code ZipArchiveOutputStream}, writing through a seekable byte channel. */
+  COMMONS_COMPRESS {
+    @Override
+    @NotNull ArchiveWriter createWriter(@NotNull File archiveFile, int defaultMethod,
+                                        @NotNull MemoryBudget memoryBudget) throws IOException {
+      return new CommonsCompressArchiveWriter(archiveFile, defaultMethod);
+    }
+  },
+
+
+  /**
+   * The JDK's {@link java.util.zip.ZipOutputStream ZipOutputStream}, writing through a buffered stream.
+   * <p>
+   * Unix file permissions are not supported by this implementation and are therefore not written.
+   */
+  JAVA_UTIL_ZIP {
+    @Override
+    @NotNull ArchiveWriter createWriter(@NotNull File archiveFile, int defaultMethod,
+                                        @NotNull MemoryBudget memoryBudget) throws IOException {
+      return new JavaUtilZipArchiveWriter(archiveFile, defaultMethod);
+    }
+  };
+
+
+  /**
+   * Creates a writer for the given archive file.
+   *
+   * @param archiveFile    archive file, not {@code null}
+   * @param defaultMethod  compression method for entries without an explicit method
+   * @param memoryBudget   memory budget for buffering the central directory, not {@code null}
+   *
+   * @return  new archive writer, never {@code null}
+   */
+  abstract @NotNull ArchiveWriter createWriter(@NotNull File archiveFile, int defaultMethod,
+                                               @NotNull MemoryBudget memoryBudget) throws IOException;
+}
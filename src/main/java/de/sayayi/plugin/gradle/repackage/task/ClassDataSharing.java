@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Class data sharing (AppCDS) configuration for a repackaged jar.
+ * <p>
+ * If a training main class is configured, the repackaged jar is run with the training main class after it has
+ * been created and the classes loaded during that run are written to a class list next to the jar. If
+ * {@link #getSharedArchive() sharedArchive} is enabled, a shared archive is dumped from that class list as well.
+ * <p>
+ * The JVM only maps a shared archive if the application class path at runtime starts with the class path the
+ * archive was dumped with, which consists of the repackaged jar followed by the {@link #getClasspath() classpath}.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public abstract class ClassDataSharing
+{
+  /**
+   * Returns the main class of the training run. If no main class is set, no class data sharing files are
+   * generated.
+   *
+   * @return  training main class property
+   */
+  @Input
+  @Optional
+  public abstract @NotNull Property<String> getMainClass();
+
+
+  /**
+   * Returns the additional class path for the training run. The repackaged jar is always placed first.
+   *
+   * @return  training class path
+   */
+  @Classpath
+  public abstract @NotNull ConfigurableFileCollection getClasspath();
+
+
+  @Input
+  public abstract @NotNull ListProperty<String> getArgs();
+
+
+  @Input
+  public abstract @NotNull ListProperty<String> getJvmArgs();
+
+
+  /**
+   * Returns the java launcher used for the training run and for dumping the shared archive. By default the
+   * toolchain configured for the project is used.
+   *
+   * @return  java launcher property
+   */
+  @Nested
+  @Optional
+  public abstract @NotNull Property<JavaLauncher> getJavaLauncher();
+
+
+  @Input
+  public abstract @NotNull Property<Boolean> getSharedArchive();
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.GradleException;
+import org.jboss.jandex.IndexWriter;
+import org.jboss.jandex.Indexer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+
+/**
+ * Collects the annotations and the class hierarchy of the repackaged classes and writes them as a Jandex index
+ * ({@code META-INF/jandex.idx}).
+ * <p>
+ * Classes are indexed as they are written, so the index reflects the relocated class names. Multi-release
+ * class variants are not indexed, as the index can only hold a single variant of each class.
+ *
+ * @author Jeroen Gremmen
+ */
+final class ClassIndex
+{
+  static final String INDEX_PATH = "META-INF/jandex.idx";
+
+  private final Indexer indexer = new Indexer();
+
+
+  /**
+   * Tells whether the class at the given path is to be indexed.
+   *
+   * @param path  relocated class path, not {@code null}
+   *
+   * @return  {@code true} if the class is to be indexed, {@code false} otherwise
+   */
+  @Contract(pure = true)
+  static boolean isIndexed(@NotNull String path) {
+    return path.endsWith(".class") && !path.startsWith("META-INF/");
+  }
+
+
+  /**
+   * Adds a class to the index.
+   *
+   * @param path        class path, used for error messages only, not {@code null}
+   * @param classBytes  class file content, not {@code null}
+   */
+  void add(@NotNull String path, @NotNull byte[] classBytes)
+  {
+    try {
+      indexer.index(new ByteArrayInputStream(classBytes));
+    } catch(IOException ex) {
+      throw new GradleException("Error while indexing class file " + path, ex);
+    }
+  }
+
+
+  /**
+   * Writes the index to the archive.
+   *
+   * @param zipOutputStream  archive output stream, not {@code null}
+   * @param entry            index entry with time and permissions set, not {@code null}
+   */
+  void writeTo(@NotNull ZipOutputStream zipOutputStream, @NotNull ZipEntry entry) throws IOException
+  {
+    val index = indexer.complete();
+
+    zipOutputStream.putNextEntry(entry);
+    new IndexWriter(zipOutputStream).write(index);
+    zipOutputStream.closeEntry();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedReader;
+import static java.util.Comparator.comparingInt;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+
+/**
+ * Entry order derived from a class loading trace.
+ * <p>
+ * Supported trace formats are the output of {@code -Xlog:class+load} (with or without decorations),
+ * {@code -verbose:class} on Java 8 and class lists as written by {@code -XX:DumpLoadedClassList}.
+ *
+ * @author Jeroen Gremmen
+ */
+final class ClassLoadOrder
+{
+  private final Map<String,Integer> entryOrder = new HashMap<>();
+
+
+  private ClassLoadOrder() {
+  }
+
+
+  /**
+   * Reads the class names from the given class loading trace.
+   *
+   * @param traceFile  class loading trace file
+   *
+   * @return  internal names of the classes in the order they have been loaded, never {@code null}
+   *
+   * @throws IOException  if the trace file could not be read
+   */
+  static @NotNull List<String> readClassNames(@NotNull File traceFile) throws IOException
+  {
+    val classNames = new ArrayList<String>();
+
+    try(val reader = newBufferedReader(traceFile.toPath(), UTF_8)) {
+      for(String line; (line = reader.readLine()) != null;)
+      {
+        val className = parseClassName(line.trim());
+        if (className != null)
+          classNames.add(className.replace('.', '/'));
+      }
+    }
+
+    return classNames;
+  }
+
+
+  /**
+   * Creates the class load order for the given class names. Class names are registered both as they appear in
+   * the trace and relocated, so the trace may be recorded using either the original or the repackaged classes.
+   *
+   * @param classNames  internal class names, as returned by {@link #readClassNames(File)}
+   * @param remapper    remapper used to relocate the class names found in the trace
+   *
+   * @return  class load order, never {@code null}
+   */
+  static @NotNull ClassLoadOrder create(@NotNull List<String> classNames, @NotNull RelocatorRemapper remapper)
+  {
+    val classLoadOrder = new ClassLoadOrder();
+
+    for(val internalName: classNames)
+    {
+      val relocatedName = remapper.map(internalName);
+
+      classLoadOrder.add(internalName);
+      if (relocatedName != null)
+        classLoadOrder.add(relocatedName);
+    }
+
+    return classLoadOrder;
+  }
+
+
+  @Contract(pure = true)
+  private static String parseClassName(@NotNull String line)
+  {
+    if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '@')
+      return null;
+
+    // -verbose:class (Java 8): [Loaded java.lang.Object from /jre/lib/rt.jar]
+    if (line.startsWith("[Loaded "))
+    {
+      val fromIndex = line.indexOf(" from ");
+      return fromIndex > 0 ? line.substring(8, fromIndex) : null;
+    }
+
+    // -Xlog:class+load: [0.010s][info][class,load] java.lang.Object source: jrt:/java.base
+    val sourceIndex = line.indexOf(" source: ");
+    if (sourceIndex > 0 && !line.contains(" id: "))
+      return line.substring(line.lastIndexOf(' ', sourceIndex - 1) + 1, sourceIndex);
+
+    // class list: java/lang/Object id: 0 [super: 0 interfaces: 1 source: x.jar]
+    val spaceIndex = line.indexOf(' ');
+    return spaceIndex < 0 ? line : line.substring(0, spaceIndex);
+  }
+
+
+  private void add(@NotNull String internalName) {
+    entryOrder.putIfAbsent(internalName + ".class", entryOrder.size());
+  }
+
+
+  /**
+   * Creates an archive writer passing all entries to {@code target} ordered: the manifest comes first, followed
+   * by the classes in the order they have been loaded, followed by all remaining entries in the order they have
+   * been written.
+   * <p>
+   * All entries are collected in spill buffers and handed over to the target writer when the returned writer is
+   * closed, so the archive is written only once, by the configured archive writer.
+   *
+   * @param target        archive writer to pass the ordered entries to, not {@code null}
+   * @param memoryBudget  memory budget for the collected entries, not {@code null}
+   *
+   * @return  ordering archive writer, never {@code null}
+   */
+  @Contract(value = "_, _ -> new", pure = true)
+  @NotNull ArchiveWriter createOrderingWriter(@NotNull ArchiveWriter target, @NotNull MemoryBudget memoryBudget) {
+    return new OrderingArchiveWriter(target, memoryBudget);
+  }
+
+
+  @Contract(pure = true)
+  private int getOrder(@NotNull ZipEntry entry)
+  {
+    val name = entry.getName();
+
+    if ("META-INF/".equals(name))
+      return -2;
+    if ("META-INF/MANIFEST.MF".equals(name))
+      return -1;
+
+    return entryOrder.getOrDefault(name, MAX_VALUE);
+  }
+
+
+
+
+  @RequiredArgsConstructor
+  private final class OrderingArchiveWriter implements ArchiveWriter
+  {
+    private final @NotNull ArchiveWriter target;
+    private final @NotNull MemoryBudget memoryBudget;
+    private final List<OrderedEntry> entries = new ArrayList<>();
+
+
+    @Override
+    public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length)
+        throws IOException
+    {
+      val orderedEntry = new OrderedEntry(entry, level, new SpillBuffer(memoryBudget));
+
+      entries.add(orderedEntry);
+      orderedEntry.data.write(data, 0, length);
+    }
+
+
+    @Override
+    public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+    {
+      val orderedEntry = new OrderedEntry(entry, level, new SpillBuffer(memoryBudget));
+
+      entries.add(orderedEntry);
+      data.writeTo(orderedEntry.data);
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+      try(target) {
+        entries.sort(comparingInt(orderedEntry -> getOrder(orderedEntry.entry)));  // stable for unlisted entries
+
+        for(val orderedEntry: entries)
+        {
+          target.writeEntry(orderedEntry.entry, orderedEntry.level, orderedEntry.data);
+          orderedEntry.data.close();
+        }
+      } finally {
+        for(val orderedEntry: entries)
+          closeQuietly(orderedEntry.data);
+
+        entries.clear();
+      }
+    }
+  }
+
+
+
+
+  @RequiredArgsConstructor
+  private static final class OrderedEntry
+  {
+    private final @NotNull ZipEntry entry;
+    private final int level;
+    private final @NotNull SpillBuffer data;
+  }
+}
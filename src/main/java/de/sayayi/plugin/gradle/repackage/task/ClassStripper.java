@@ -0,0 +1,277 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
+import lombok.val;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static de.sayayi.plugin.gradle.repackage.relocator.StripOption.*;
+import static org.codehaus.plexus.util.SelectorUtils.REGEX_HANDLER_PREFIX;
+import static org.codehaus.plexus.util.SelectorUtils.matchPath;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+
+/**
+ * Class visitor stripping debug information and invisible annotations from a class.
+ * <p>
+ * The stripper must be placed before the remapper, so annotation patterns are matched against the original
+ * annotation class names.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see StripOption
+ */
+final class ClassStripper extends ClassVisitor
+{
+  private final Set<StripOption> strip;
+  private final List<String> annotationPatterns;
+
+
+  private ClassStripper(@NotNull ClassVisitor classVisitor, @NotNull Set<StripOption> strip,
+                        @NotNull List<String> annotationPatterns)
+  {
+    super(ASM9, classVisitor);
+
+    this.strip = strip;
+    this.annotationPatterns = annotationPatterns;
+  }
+
+
+  /**
+   * Wraps the given class visitor with a stripper, if anything is to be stripped from the class. The global
+   * strip configuration is combined with the configuration of the first relocator relocating the class.
+   *
+   * @param classVisitor      class visitor to delegate to, not {@code null}
+   * @param className         internal name of the class, not {@code null}
+   * @param strip             strip options for all classes, not {@code null}
+   * @param stripAnnotations  annotation patterns for all classes, not {@code null}
+   * @param relocators        relocators, not {@code null}
+   *
+   * @return  class visitor, never {@code null}
+   */
+  static @NotNull ClassVisitor wrap(@NotNull ClassVisitor classVisitor, @NotNull String className,
+                                    @NotNull Set<StripOption> strip, @NotNull Set<String> stripAnnotations,
+                                    @NotNull List<Relocator> relocators)
+  {
+    val classStrip = strip.isEmpty() ? EnumSet.noneOf(StripOption.class) : EnumSet.copyOf(strip);
+    val classStripAnnotations = new ArrayList<String>();
+
+    addAnnotationPatterns(classStripAnnotations, stripAnnotations);
+
+    for(val relocator: relocators)
+      if (relocator.canRelocatePath(className))
+      {
+        classStrip.addAll(relocator.getStrip());
+        addAnnotationPatterns(classStripAnnotations, relocator.getStripAnnotations());
+        break;
+      }
+
+    return classStrip.isEmpty() && classStripAnnotations.isEmpty()
+        ? classVisitor
+        : new ClassStripper(classVisitor, classStrip, classStripAnnotations);
+  }
+
+
+  private static void addAnnotationPatterns(@NotNull List<String> annotationPatterns,
+                                            @NotNull Collection<String> patterns)
+  {
+    for(val pattern: patterns)
+      annotationPatterns.add(pattern.startsWith(REGEX_HANDLER_PREFIX) ? pattern : pattern.replace('.', '/'));
+  }
+
+
+  @Contract(pure = true)
+  private boolean isStripped(@NotNull String descriptor, boolean visible)
+  {
+    if (visible)
+      return false;
+
+    if (strip.contains(INVISIBLE_ANNOTATIONS))
+      return true;
+
+    if (!annotationPatterns.isEmpty())
+    {
+      val annotationClassName = descriptor.substring(1, descriptor.length() - 1);
+
+      for(val annotationPattern: annotationPatterns)
+        if (matchPath(annotationPattern, annotationClassName, "/", true))
+          return true;
+    }
+
+    return false;
+  }
+
+
+  @Override
+  public void visitSource(String source, String debug)
+  {
+    if (!strip.contains(SOURCE_FILE))
+      super.visitSource(source, debug);
+    else if (debug != null)
+      super.visitSource(null, debug);
+  }
+
+
+  @Override
+  public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+    return isStripped(descriptor, visible) ? null : super.visitAnnotation(descriptor, visible);
+  }
+
+
+  @Override
+  public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible)
+  {
+    return isStripped(descriptor, visible)
+        ? null
+        : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+  }
+
+
+  @Override
+  public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+  {
+    val fieldVisitor = super.visitField(access, name, descriptor, signature, value);
+    return fieldVisitor == null ? null : new FieldStripper(fieldVisitor);
+  }
+
+
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                   String[] exceptions)
+  {
+    val methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+    return methodVisitor == null ? null : new MethodStripper(methodVisitor);
+  }
+
+
+
+
+  private final class FieldStripper extends FieldVisitor
+  {
+    private FieldStripper(@NotNull FieldVisitor fieldVisitor) {
+      super(ASM9, fieldVisitor);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      return isStripped(descriptor, visible) ? null : super.visitAnnotation(descriptor, visible);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+                                                 boolean visible)
+    {
+      return isStripped(descriptor, visible)
+          ? null
+          : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+    }
+  }
+
+
+
+
+  private final class MethodStripper extends MethodVisitor
+  {
+    private MethodStripper(@NotNull MethodVisitor methodVisitor) {
+      super(ASM9, methodVisitor);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      return isStripped(descriptor, visible) ? null : super.visitAnnotation(descriptor, visible);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+                                                 boolean visible)
+    {
+      return isStripped(descriptor, visible)
+          ? null
+          : super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible)
+    {
+      return isStripped(descriptor, visible)
+          ? null
+          : super.visitParameterAnnotation(parameter, descriptor, visible);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor,
+                                                 boolean visible)
+    {
+      return isStripped(descriptor, visible)
+          ? null
+          : super.visitInsnAnnotation(typeRef, typePath, descriptor, visible);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor,
+                                                     boolean visible)
+    {
+      return isStripped(descriptor, visible)
+          ? null
+          : super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible);
+    }
+
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end,
+                                   int index)
+    {
+      if (!strip.contains(LOCAL_VARIABLES))
+        super.visitLocalVariable(name, descriptor, signature, start, end, index);
+    }
+
+
+    @Override
+    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start,
+                                                          Label[] end, int[] index, String descriptor,
+                                                          boolean visible)
+    {
+      return strip.contains(LOCAL_VARIABLES) || isStripped(descriptor, visible)
+          ? null
+          : super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible);
+    }
+
+
+    @Override
+    public void visitLineNumber(int line, Label start)
+    {
+      if (!strip.contains(LINE_NUMBERS))
+        super.visitLineNumber(line, start);
+    }
+  }
+}
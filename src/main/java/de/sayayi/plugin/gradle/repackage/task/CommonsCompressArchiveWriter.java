@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.compress.archivers.zip.Zip64Mode.AsNeeded;
+import static org.apache.tools.zip.ZipEntry.PLATFORM_UNIX;
+
+
+/**
+ * Archive writer using Commons Compress' {@link ZipArchiveOutputStream}.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see ArchiveWriterType#COMMONS_COMPRESS
+ */
+final class CommonsCompressArchiveWriter implements ArchiveWriter
+{
+  private final ZipArchiveOutputStream zipOutputStream;
+
+
+  CommonsCompressArchiveWriter(@NotNull File archiveFile, int defaultMethod) throws IOException
+  {
+    zipOutputStream = new ZipArchiveOutputStream(archiveFile);
+    zipOutputStream.setEncoding(UTF_8.name());
+    zipOutputStream.setUseZip64(AsNeeded);
+    zipOutputStream.setMethod(defaultMethod);
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) throws IOException
+  {
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putArchiveEntry(createArchiveEntry(entry));
+    zipOutputStream.write(data, 0, length);
+    zipOutputStream.closeArchiveEntry();
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+  {
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putArchiveEntry(createArchiveEntry(entry));
+    data.writeTo(zipOutputStream);
+    zipOutputStream.closeArchiveEntry();
+  }
+
+
+  private static @NotNull ZipArchiveEntry createArchiveEntry(@NotNull ZipEntry entry)
+  {
+    val archiveEntry = new ZipArchiveEntry(entry.getName());
+
+    if (entry.getTime() != -1)
+      archiveEntry.setTime(entry.getTime());
+    if (entry.getMethod() != -1)
+      archiveEntry.setMethod(entry.getMethod());
+    if (entry.getPlatform() == PLATFORM_UNIX)
+      archiveEntry.setUnixMode(entry.getUnixMode());
+
+    archiveEntry.setInternalAttributes(entry.getInternalAttributes());
+    archiveEntry.setComment(entry.getComment());
+
+    val extra = entry.getLocalFileDataExtra();
+    if (extra.length > 0)
+      archiveEntry.setExtra(extra);
+
+    return archiveEntry;
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    zipOutputStream.close();
+  }
+}
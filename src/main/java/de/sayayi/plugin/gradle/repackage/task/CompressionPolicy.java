@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.val;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.jetbrains.annotations.NotNull;
+
+import static de.sayayi.plugin.gradle.repackage.task.CompressionRule.STORE;
+import static java.util.Arrays.asList;
+import static java.util.zip.Deflater.BEST_COMPRESSION;
+import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
+
+
+/**
+ * Per entry compression configuration for a repackaged jar. This configuration only applies if the entry
+ * compression of the task is {@code DEFLATED}.
+ * <p>
+ * For each entry the compression is selected as follows:
+ * <ol>
+ *   <li>the first {@link #getRules() rule} with a pattern matching the entry path,</li>
+ *   <li>store if the entry has one of the {@link #getStoredExtensions() stored extensions},</li>
+ *   <li>store if the entry size is known and smaller than the {@link #getStoreThreshold() store threshold},</li>
+ *   <li>deflate using the {@link #getLevel() default level}.</li>
+ * </ol>
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public abstract class CompressionPolicy
+{
+  /** File extensions of formats which are compressed already, deflating them is a waste of time. */
+  public static final String[] COMPRESSED_EXTENSIONS = {
+      "jar", "zip", "war", "ear", "jmod", "gz", "tgz", "bz2", "xz", "lz4", "zst", "7z", "png", "jpg", "jpeg",
+      "gif", "webp", "mp3", "mp4", "ogg", "woff", "woff2"
+  };
+
+  /** Default store threshold. Deflating entries below this size usually increases the entry size. */
+  public static final long DEFAULT_STORE_THRESHOLD = 64;
+
+
+  public CompressionPolicy()
+  {
+    getLevel().convention(DEFAULT_COMPRESSION);
+    getStoreThreshold().convention(DEFAULT_STORE_THRESHOLD);
+    getStoredExtensions().convention(asList(COMPRESSED_EXTENSIONS));
+  }
+
+
+  /**
+   * Returns the deflate level for entries not matched by any other rule.
+   *
+   * @return  deflate level property (1..9 or -1), defaults to {@code -1} (default deflate level)
+   */
+  @Input
+  public abstract @NotNull Property<Integer> getLevel();
+
+
+  /**
+   * Returns the size in bytes below which entries are stored instead of deflated. A threshold of {@code 0}
+   * disables storing small entries.
+   *
+   * @return  store threshold property, defaults to {@value #DEFAULT_STORE_THRESHOLD}
+   */
+  @Input
+  public abstract @NotNull Property<Long> getStoreThreshold();
+
+
+  /**
+   * Returns the file extensions (case-insensitive, without dot) of entries which are always stored.
+   *
+   * @return  stored extensions property, defaults to {@link #COMPRESSED_EXTENSIONS}
+   */
+  @Input
+  public abstract @NotNull ListProperty<String> getStoredExtensions();
+
+
+  /**
+   * Returns the compression rules. Rules are evaluated in the order they have been added.
+   *
+   * @return  compression rules property
+   */
+  @Input
+  public abstract @NotNull ListProperty<CompressionRule> getRules();
+
+
+  /**
+   * Store entries matching any of the given Ant style path patterns.
+   *
+   * @param patterns  path patterns
+   */
+  public void store(@NotNull String... patterns)
+  {
+    for(val pattern: patterns)
+      getRules().add(new CompressionRule(pattern, STORE));
+  }
+
+
+  /**
+   * Deflate entries matching any of the given Ant style path patterns with the given level.
+   *
+   * @param level     deflate level (1..9)
+   * @param patterns  path patterns
+   */
+  public void deflate(int level, @NotNull String... patterns)
+  {
+    if (level < 1 || level > BEST_COMPRESSION)
+      throw new IllegalArgumentException("deflate level must be in range 1..9");
+
+    for(val pattern: patterns)
+      getRules().add(new CompressionRule(pattern, level));
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.Value;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+
+
+/**
+ * Compression rule for archive entries matching an Ant style path pattern (e.g. {@code **}{@code /*.dat}).
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see CompressionPolicy
+ */
+@Value
+public class CompressionRule implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  /** Level indicating that matching entries are stored without compression. */
+  public static final int STORE = 0;
+
+
+  @NotNull String pattern;
+
+  /** Deflate level (1..9), {@code -1} for the default deflate level or {@link #STORE}. */
+  int level;
+}
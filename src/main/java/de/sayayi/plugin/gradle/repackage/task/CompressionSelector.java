@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.val;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static de.sayayi.plugin.gradle.repackage.task.CompressionRule.STORE;
+import static java.util.Locale.ROOT;
+import static org.codehaus.plexus.util.SelectorUtils.matchPath;
+
+
+/**
+ * Selects the compression level for archive entries, as configured by {@link CompressionPolicy}.
+ *
+ * @author Jeroen Gremmen
+ */
+final class CompressionSelector
+{
+  private final List<CompressionRule> rules;
+  private final Set<String> storedExtensions = new HashSet<>();
+  private final long storeThreshold;
+  private final int level;
+
+
+  CompressionSelector(@NotNull CompressionPolicy policy)
+  {
+    rules = policy.getRules().get();
+    storeThreshold = policy.getStoreThreshold().get();
+    level = policy.getLevel().get();
+
+    for(val extension: policy.getStoredExtensions().get())
+      storedExtensions.add(extension.toLowerCase(ROOT));
+  }
+
+
+  /**
+   * Returns the level for entries whose path and size are unknown.
+   *
+   * @return  default deflate level
+   */
+  @Contract(pure = true)
+  int getDefaultLevel() {
+    return level;
+  }
+
+
+  /**
+   * Selects the compression level for an entry.
+   *
+   * @param path  entry path, not {@code null}
+   * @param size  uncompressed entry size or {@code -1} if unknown
+   *
+   * @return  deflate level or {@link CompressionRule#STORE}
+   */
+  @Contract(pure = true)
+  int selectLevel(@NotNull String path, long size)
+  {
+    for(val rule: rules)
+      if (matchPath(rule.getPattern(), path, "/", true))
+        return rule.getLevel();
+
+    val extensionIndex = path.lastIndexOf('.');
+    if (extensionIndex > path.lastIndexOf('/') &&
+        storedExtensions.contains(path.substring(extensionIndex + 1).toLowerCase(ROOT)))
+      return STORE;
+
+    return size >= 0 && size < storeThreshold ? STORE : level;
+  }
+}
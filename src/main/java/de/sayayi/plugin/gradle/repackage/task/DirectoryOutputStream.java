@@ -0,0 +1,321 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.io.OutputStream.nullOutputStream;
+import static java.nio.file.Files.*;
+import static java.util.Comparator.reverseOrder;
+
+
+/**
+ * Zip output stream which writes each file entry to a directory tree instead of an archive. Optionally, all
+ * entries are written to an archive output stream as well.
+ * <p>
+ * The content of each file entry is collected in a {@link SpillBuffer}, so it is moved to a temporary file once
+ * the memory budget is exhausted. Files with unchanged content are not rewritten, so their modification time is
+ * preserved; the content is compared with the existing file in a single streaming pass. Once finished,
+ * files in the directory which have not been written by this stream are deleted, together with empty
+ * directories. Entries resolving to a path outside of the directory are rejected.
+ * <p>
+ * Only entry related methods and {@link #setLevel(int)} are supported.
+ *
+ * @author Jeroen Gremmen
+ */
+final class DirectoryOutputStream extends ZipOutputStream
+{
+  private final Path directory;
+  private final @Nullable ZipOutputStream archiveOutputStream;
+  private final @NotNull MemoryBudget memoryBudget;
+  private final Set<String> writtenFiles = new HashSet<>();
+
+  private String entryName;
+  private SpillBuffer entryData;
+  private boolean finished;
+  private boolean changed;
+
+
+  DirectoryOutputStream(@NotNull File directory, @Nullable ZipOutputStream archiveOutputStream,
+                        @NotNull MemoryBudget memoryBudget)
+  {
+    super(nullOutputStream());
+
+    this.directory = directory.toPath().toAbsolutePath().normalize();
+    this.archiveOutputStream = archiveOutputStream;
+    this.memoryBudget = memoryBudget;
+  }
+
+
+  /**
+   * Tells whether the content of the directory has been changed, either by writing or by deleting files.
+   *
+   * @return  {@code true} if the directory has been changed, {@code false} otherwise
+   */
+  boolean isChanged() {
+    return changed;
+  }
+
+
+  @Override
+  public void setLevel(int level)
+  {
+    if (archiveOutputStream != null)
+      archiveOutputStream.setLevel(level);
+  }
+
+
+  @Override
+  public void putNextEntry(@NotNull ZipEntry entry) throws IOException
+  {
+    closeEntry();
+
+    if (archiveOutputStream != null)
+      archiveOutputStream.putNextEntry(entry);
+
+    if (!entry.isDirectory())
+    {
+      entryName = entry.getName();
+      entryData = new SpillBuffer(memoryBudget);
+    }
+  }
+
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (archiveOutputStream != null)
+      archiveOutputStream.write(b);
+
+    if (entryName != null)
+      entryData.write(b);
+  }
+
+
+  @Override
+  public void write(@NotNull byte[] b, int offset, int length) throws IOException
+  {
+    if (archiveOutputStream != null)
+      archiveOutputStream.write(b, offset, length);
+
+    if (entryName != null)
+      entryData.write(b, offset, length);
+  }
+
+
+  @Override
+  public void closeEntry() throws IOException
+  {
+    if (archiveOutputStream != null)
+      archiveOutputStream.closeEntry();
+
+    if (entryName != null)
+    {
+      val name = entryName;
+
+      entryName = null;
+      writeFile(name);
+    }
+  }
+
+
+  private void writeFile(@NotNull String name) throws IOException
+  {
+    try {
+      val file = directory.resolve(name).normalize();
+
+      if (!isInDirectory(file))
+        throw new IOException("Entry is outside of the output directory: " + name);
+
+      writtenFiles.add(getRelativeName(file));
+
+      // keep unchanged files, so their modification time is preserved
+      if (isRegularFile(file) && size(file) == entryData.size() && hasContent(file, entryData))
+        return;
+
+      createDirectories(file.getParent());
+
+      try(val outputStream = newOutputStream(file)) {
+        entryData.writeTo(outputStream);
+      }
+
+      changed = true;
+    } finally {
+      closeEntryData();
+    }
+  }
+
+
+  /**
+   * Tells whether the given file has the same content as the given data, by reading both in a single pass.
+   */
+  private static boolean hasContent(@NotNull Path file, @NotNull SpillBuffer data) throws IOException
+  {
+    try(val inputStream = newInputStream(file)) {
+      val comparingOutputStream = new ComparingOutputStream(inputStream);
+      data.writeTo(comparingOutputStream);
+
+      return comparingOutputStream.equal && inputStream.read() == -1;
+    }
+  }
+
+
+  private void closeEntryData() throws IOException
+  {
+    if (entryData != null)
+    {
+      try {
+        entryData.close();
+      } finally {
+        entryData = null;
+      }
+    }
+  }
+
+
+  @Override
+  public void finish() throws IOException
+  {
+    if (!finished)
+    {
+      finished = true;
+
+      closeEntry();
+      deleteStaleFiles();
+
+      if (archiveOutputStream != null)
+        archiveOutputStream.finish();
+    }
+
+    super.finish();
+  }
+
+
+  private void deleteStaleFiles() throws IOException
+  {
+    if (!isDirectory(directory))
+      return;
+
+    try(val paths = walk(directory)) {
+      for(val path: (Iterable<Path>)paths.sorted(reverseOrder())::iterator)
+      {
+        if (!isInDirectory(path.normalize()))
+          continue;
+
+        if (isDirectory(path))
+        {
+          try(val children = list(path)) {
+            if (children.findAny().isPresent())
+              continue;
+          }
+        }
+        else if (writtenFiles.contains(getRelativeName(path)))
+          continue;
+
+        delete(path);
+        changed = true;
+      }
+    }
+  }
+
+
+  /**
+   * Tells whether the given normalized path is located inside the directory. The directory itself is not
+   * considered to be inside.
+   */
+  @Contract(pure = true)
+  private boolean isInDirectory(@NotNull Path path) {
+    return path.startsWith(directory) && !path.equals(directory);
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull String getRelativeName(@NotNull Path path) {
+    return directory.relativize(path).toString().replace(File.separatorChar, '/');
+  }
+
+
+  @Override
+  public void close() throws IOException
+  {
+    try {
+      super.close();
+    } finally {
+      try {
+        closeEntryData();
+      } finally {
+        if (archiveOutputStream != null)
+          archiveOutputStream.close();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Output stream comparing the bytes written with the bytes read from an input stream.
+   */
+  private static final class ComparingOutputStream extends OutputStream
+  {
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[8192];
+    private boolean equal = true;
+
+
+    private ComparingOutputStream(@NotNull InputStream inputStream) {
+      this.inputStream = inputStream;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      if (equal)
+        equal = inputStream.read() == (b & 0xff);
+    }
+
+
+    @Override
+    public void write(@NotNull byte[] b, int offset, int length) throws IOException
+    {
+      while(equal && length > 0)
+      {
+        val n = inputStream.readNBytes(buffer, 0, Math.min(length, buffer.length));
+
+        equal = n > 0 && Arrays.equals(buffer, 0, n, b, offset, offset + n);
+        offset += n;
+        length -= n;
+      }
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.task.RepackageCopyAction.ArchiveFileTreeElement;
+import de.sayayi.plugin.gradle.repackage.util.CompactStringSet;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+
+/**
+ * Paths contained in more than one input archive.
+ * <p>
+ * The duplicates are determined before the archive is written from the central directories of the input
+ * archives, as provided by the {@link InputInventory}. Duplicates with a different CRC-32 checksum or size are conflicting; only if checksum and size match,
+ * the content of the entries is compared.
+ *
+ * @author Jeroen Gremmen
+ */
+final class DuplicateEntries
+{
+  private final Map<String,Duplicate> duplicates;
+
+
+  private DuplicateEntries(@NotNull Map<String,Duplicate> duplicates) {
+    this.duplicates = duplicates;
+  }
+
+
+  /**
+   * Scans the input archives for duplicate paths.
+   *
+   * @param inputInventory  inventory of the input files, not {@code null}
+   * @param entrySelector   function creating the entry selector for the entries of an archive, not {@code null}
+   * @param deduplicated    predicate telling whether an archive element is subject to deduplication,
+   *                        not {@code null}
+   *
+   * @return  duplicate entries, never {@code null}
+   */
+  static @NotNull DuplicateEntries scan(
+      @NotNull InputInventory inputInventory,
+      @NotNull Function<List<ZipEntry>,Function<ZipEntry,ArchiveFileTreeElement>> entrySelector,
+      @NotNull Predicate<ArchiveFileTreeElement> deduplicated) throws IOException
+  {
+    val archives = inputInventory.getArchives();
+    val paths = new CompactStringSet();
+    val duplicates = new HashMap<String,Duplicate>();
+
+    // first pass: find the paths contained in more than one archive
+    for(val archive: archives)
+      forEachElement(archive, entrySelector, deduplicated, (path, zipEntry) -> {
+        if (!paths.add(path))
+          duplicates.putIfAbsent(path, new Duplicate());
+      });
+
+    // second pass: compare each occurrence with the first one
+    if (!duplicates.isEmpty())
+    {
+      val openedArchives = new HashMap<File,ZipFile>();
+
+      try {
+        for(val archive: archives)
+          forEachElement(archive, entrySelector, deduplicated, (path, zipEntry) -> {
+            val duplicate = duplicates.get(path);
+            if (duplicate != null)
+              duplicate.add(archive.getFile(), zipEntry, openedArchives);
+          });
+      } finally {
+        for(val openedArchive: openedArchives.values())
+          openedArchive.close();
+      }
+    }
+
+    return new DuplicateEntries(duplicates);
+  }
+
+
+  private static void forEachElement(
+      @NotNull InputInventory.Archive archive,
+      @NotNull Function<List<ZipEntry>,Function<ZipEntry,ArchiveFileTreeElement>> entrySelector,
+      @NotNull Predicate<ArchiveFileTreeElement> deduplicated, @NotNull ElementConsumer consumer) throws IOException
+  {
+    val zipEntries = archive.getEntries();
+    val archiveEntrySelector = entrySelector.apply(zipEntries);
+
+    for(val zipEntry: zipEntries)
+    {
+      val archiveElement = archiveEntrySelector.apply(zipEntry);
+      if (archiveElement != null && deduplicated.test(archiveElement))
+        consumer.accept(archiveElement.getRelativePath().getPathString(), zipEntry);
+    }
+  }
+
+
+  /**
+   * Returns the conflicting duplicates.
+   *
+   * @return  map with the path as key and the archives containing the path as value, sorted by path
+   */
+  @Contract(pure = true)
+  @NotNull SortedMap<String,List<File>> getConflicts()
+  {
+    val conflicts = new TreeMap<String,List<File>>();
+
+    duplicates.forEach((path, duplicate) -> {
+      if (duplicate.conflicting)
+        conflicts.put(path, duplicate.archiveFiles);
+    });
+
+    return conflicts;
+  }
+
+
+  /**
+   * Records an occurrence of the given path and tells whether it is the last occurrence in the input archives.
+   *
+   * @param path  archive path, not {@code null}
+   *
+   * @return  {@code true} if the path is not duplicated or this is its last occurrence, {@code false} otherwise
+   */
+  boolean isLastOccurrence(@NotNull String path)
+  {
+    val duplicate = duplicates.get(path);
+    return duplicate == null || ++duplicate.occurrences >= duplicate.archiveFiles.size();
+  }
+
+
+
+
+  private static final class Duplicate
+  {
+    private final List<File> archiveFiles = new ArrayList<>(2);
+    private String entryName;
+    private long crc;
+    private long size;
+    private boolean conflicting;
+    private int occurrences;
+
+
+    /**
+     * Adds an occurrence of the duplicate path. The occurrence is compared with the first occurrence, unless the
+     * duplicate is conflicting already.
+     *
+     * @param archiveFile     archive file containing the occurrence, not {@code null}
+     * @param zipEntry        entry of the occurrence, not {@code null}
+     * @param openedArchives  archives opened on demand for comparing the content, closed by the caller,
+     *                        not {@code null}
+     */
+    private void add(@NotNull File archiveFile, @NotNull ZipEntry zipEntry,
+                     @NotNull Map<File,ZipFile> openedArchives) throws IOException
+    {
+      if (archiveFiles.isEmpty())
+      {
+        entryName = zipEntry.getName();
+        crc = zipEntry.getCrc();
+        size = zipEntry.getSize();
+      }
+      else if (!conflicting)
+      {
+        conflicting = zipEntry.getCrc() != crc || zipEntry.getSize() != size ||
+                      !hasSameContent(openArchive(archiveFiles.get(0), openedArchives),
+                          openArchive(archiveFile, openedArchives), zipEntry);
+      }
+
+      archiveFiles.add(archiveFile);
+    }
+
+
+    private static @NotNull ZipFile openArchive(@NotNull File archiveFile, @NotNull Map<File,ZipFile> openedArchives)
+        throws IOException
+    {
+      var archive = openedArchives.get(archiveFile);
+
+      if (archive == null)
+        openedArchives.put(archiveFile, archive = new ZipFile(archiveFile));
+
+      return archive;
+    }
+
+
+    private boolean hasSameContent(@NotNull ZipFile firstArchive, @NotNull ZipFile archive,
+                                   @NotNull ZipEntry zipEntry) throws IOException
+    {
+      val firstEntry = firstArchive.getEntry(entryName);
+      val entry = archive.getEntry(zipEntry.getName());
+      if (firstEntry == null || entry == null)
+        return false;
+
+      try(val firstInputStream = firstArchive.getInputStream(firstEntry);
+          val inputStream = archive.getInputStream(entry)) {
+        val firstBuffer = new byte[8192];
+        val buffer = new byte[8192];
+
+        for(int n; (n = firstInputStream.readNBytes(firstBuffer, 0, firstBuffer.length)) > 0;)
+          if (inputStream.readNBytes(buffer, 0, n) != n || !Arrays.equals(firstBuffer, 0, n, buffer, 0, n))
+            return false;
+
+        return inputStream.read() == -1;
+      }
+    }
+  }
+
+
+
+
+  @FunctionalInterface
+  private interface ElementConsumer
+  {
+    void accept(@NotNull String path, @NotNull ZipEntry zipEntry) throws IOException;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+
+/**
+ * Strategy for entries with the same path contained in more than one input archive.
+ * <p>
+ * Duplicates with a different CRC-32 checksum or size, as stored in the central directory of each input archive,
+ * are conflicting without being inflated. Only if checksum and size match, the content of the entries is compared.
+ * The manifest is exempt and is always taken from the first archive containing it.
+ *
+ * @author Jeroen Gremmen
+ */
+public enum DuplicateStrategy
+{
+  /** The entry of the first archive is used; duplicates are ignored without being checked. */
+  FIRST_WINS,
+
+  /** The entry of the last archive is used. */
+  LAST_WINS,
+
+  /** The entry of the first archive is used and a warning is logged for duplicates with different content. */
+  WARN_ON_CONFLICT,
+
+  /** The task fails if duplicates with different content are found, before the archive is written. */
+  FAIL_ON_CONFLICT
+}
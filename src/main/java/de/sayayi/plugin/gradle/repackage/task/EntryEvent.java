@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import jdk.jfr.*;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Flight recorder event, emitted for a class remap or entry copy which took longer than the configured
+ * threshold. The threshold defaults to 10 ms and can be changed in the recording settings, e.g.
+ * {@code de.sayayi.repackage.Entry#threshold=1 ms}.
+ *
+ * @author Jeroen Gremmen
+ */
+@Name("de.sayayi.repackage.Entry")
+@Label("Repackage Entry")
+@Category({ "Gradle", "Repackage" })
+@Description("Slow class remap or entry copy")
+@Threshold("10 ms")
+@StackTrace(false)
+final class EntryEvent extends Event
+{
+  static final String REMAP = "remap";
+  static final String COPY = "copy";
+
+  @Label("Entry")
+  String entry;
+
+  @Label("Relocated Entry")
+  String relocatedEntry;
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Input Size")
+  @DataAmount
+  long inputSize;
+
+  @Label("Output Size")
+  @DataAmount
+  long outputSize;
+
+  @Label("Relocator Hits")
+  @Description("Number of names relocated in the class")
+  int relocatorHits;
+
+
+  /**
+   * Ends the event and commits it if its duration exceeds the threshold.
+   */
+  void complete(@NotNull String entry, @NotNull String relocatedEntry, @NotNull String operation,
+                long inputSize, long outputSize, int relocatorHits)
+  {
+    end();
+
+    if (shouldCommit())
+    {
+      this.entry = entry;
+      this.relocatedEntry = relocatedEntry;
+      this.operation = operation;
+      this.inputSize = inputSize;
+      this.outputSize = outputSize;
+      this.relocatorHits = relocatorHits;
+
+      commit();
+    }
+  }
+}
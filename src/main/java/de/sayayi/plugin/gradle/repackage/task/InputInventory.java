@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.util.Collections.list;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+
+/**
+ * Inventory of the input files, read before the archive is written.
+ * <p>
+ * The inventory contains the central directory of each input archive and the paths of all other input files.
+ * It is read on first access and shared by all outputs created from the same input files, so the relocation
+ * plan, the duplicate scan and the class load order of multiple variants don't read the inputs again.
+ *
+ * @author Jeroen Gremmen
+ */
+@RequiredArgsConstructor
+final class InputInventory
+{
+  private final @NotNull Collection<File> sourceFiles;
+  private final Map<File,List<String>> loadedClassNames = new HashMap<>();
+  private List<Archive> archives;
+  private List<String> filePaths;
+
+
+  /**
+   * Returns the input archives in the order they are processed.
+   *
+   * @return  input archives, never {@code null}
+   */
+  @NotNull List<Archive> getArchives() throws IOException
+  {
+    read();
+    return archives;
+  }
+
+
+  /**
+   * Returns the paths of all input files which are not archives. Files contained in a directory are relative to
+   * that directory.
+   *
+   * @return  file paths, never {@code null}
+   */
+  @NotNull List<String> getFilePaths() throws IOException
+  {
+    read();
+    return filePaths;
+  }
+
+
+  /**
+   * Returns the internal names of the classes listed in the given class loading trace, in the order they have
+   * been loaded.
+   *
+   * @param traceFile  class loading trace file, not {@code null}
+   *
+   * @return  internal class names, never {@code null}
+   */
+  @NotNull List<String> getLoadedClassNames(@NotNull File traceFile) throws IOException
+  {
+    var classNames = loadedClassNames.get(traceFile);
+
+    if (classNames == null)
+      loadedClassNames.put(traceFile, classNames = ClassLoadOrder.readClassNames(traceFile));
+
+    return classNames;
+  }
+
+
+  private void read() throws IOException
+  {
+    if (archives != null)
+      return;
+
+    val archives = new ArrayList<Archive>();
+    val filePaths = new ArrayList<String>();
+
+    for(val sourceFile: sourceFiles)
+    {
+      if (sourceFile.isDirectory())
+      {
+        List<File> files;
+
+        try(val fileStream = Files.walk(sourceFile.toPath())) {
+          files = fileStream.filter(Files::isRegularFile).map(Path::toFile).collect(toList());
+        }
+
+        for(val file: files)
+        {
+          if (isArchive(file))
+            archives.add(readArchive(file));
+          else
+            filePaths.add(sourceFile.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+        }
+      }
+      else if (isArchive(sourceFile))
+        archives.add(readArchive(sourceFile));
+      else if (sourceFile.isFile())
+        filePaths.add(sourceFile.getName());
+    }
+
+    this.archives = unmodifiableList(archives);
+    this.filePaths = unmodifiableList(filePaths);
+  }
+
+
+  @Contract(pure = true)
+  private static boolean isArchive(@NotNull File file) {
+    return file.getName().endsWith(".jar");
+  }
+
+
+  private static @NotNull Archive readArchive(@NotNull File archiveFile) throws IOException
+  {
+    try(val archive = new ZipFile(archiveFile)) {
+      return new Archive(archiveFile, unmodifiableList(list(archive.getEntries())));
+    }
+  }
+
+
+
+
+  /**
+   * Input archive with the entries of its central directory.
+   */
+  @Getter
+  @RequiredArgsConstructor
+  static final class Archive
+  {
+    private final @NotNull File file;
+    private final @NotNull List<ZipEntry> entries;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipOutputStream;
+
+import static java.io.OutputStream.nullOutputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.zip.ZipEntry.STORED;
+
+
+/**
+ * Archive writer using the JDK's {@link ZipOutputStream}.
+ * <p>
+ * The JDK doesn't support writing the external file attributes, so unix file permissions are not preserved.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see ArchiveWriterType#JAVA_UTIL_ZIP
+ */
+final class JavaUtilZipArchiveWriter implements ArchiveWriter
+{
+  private final ZipOutputStream zipOutputStream;
+  private final int defaultMethod;
+  private final CRC32 crc = new CRC32();
+
+
+  JavaUtilZipArchiveWriter(@NotNull File archiveFile, int defaultMethod) throws IOException
+  {
+    this.zipOutputStream = new ZipOutputStream(
+        new BufferedOutputStream(new FileOutputStream(archiveFile), 0x40000), UTF_8);
+    this.defaultMethod = defaultMethod;
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) throws IOException
+  {
+    val archiveEntry = createArchiveEntry(entry);
+
+    if (archiveEntry.getMethod() == STORED)
+    {
+      // stored entries require their sizes and checksum up front
+      crc.reset();
+      crc.update(data, 0, length);
+      setStoredSize(archiveEntry, length);
+    }
+
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putNextEntry(archiveEntry);
+    zipOutputStream.write(data, 0, length);
+    zipOutputStream.closeEntry();
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+  {
+    val archiveEntry = createArchiveEntry(entry);
+
+    if (archiveEntry.getMethod() == STORED)
+    {
+      crc.reset();
+      data.writeTo(new CheckedOutputStream(nullOutputStream(), crc));
+      setStoredSize(archiveEntry, data.size());
+    }
+
+    zipOutputStream.setLevel(level);
+    zipOutputStream.putNextEntry(archiveEntry);
+    data.writeTo(zipOutputStream);
+    zipOutputStream.closeEntry();
+  }
+
+
+  private @NotNull java.util.zip.ZipEntry createArchiveEntry(@NotNull ZipEntry entry)
+  {
+    val archiveEntry = new java.util.zip.ZipEntry(entry.getName());
+    val method = entry.getMethod() == -1 ? defaultMethod : entry.getMethod();
+
+    if (entry.getTime() != -1)
+      archiveEntry.setTime(entry.getTime());
+
+    archiveEntry.setMethod(method);
+    archiveEntry.setComment(entry.getComment());
+
+    val extra = entry.getLocalFileDataExtra();
+    if (extra.length > 0)
+      archiveEntry.setExtra(extra);
+
+    return archiveEntry;
+  }
+
+
+  private void setStoredSize(@NotNull java.util.zip.ZipEntry archiveEntry, long size)
+  {
+    archiveEntry.setSize(size);
+    archiveEntry.setCompressedSize(size);
+    archiveEntry.setCrc(crc.getValue());
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    zipOutputStream.close();
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+
+/**
+ * Kind of output created by a repackage task.
+ *
+ * @author Jeroen Gremmen
+ */
+public enum OutputMode
+{
+  /** The relocated classes and resources are written to a jar. */
+  JAR,
+
+  /**
+   * The relocated classes and resources are written to a directory tree, which can be used as a classes
+   * directory. This avoids the cost of assembling a jar, e.g. for development builds.
+   */
+  DIRECTORY,
+
+  /** Both a jar and a directory tree are created. */
+  BOTH
+}
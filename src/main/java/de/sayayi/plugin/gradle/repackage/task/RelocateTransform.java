@@ -0,0 +1,154 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.RegexRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
+import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
+import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.gradle.api.artifacts.transform.*;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.util.PatternSet;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.gradle.api.tasks.PathSensitivity.NAME_ONLY;
+import static org.gradle.api.tasks.bundling.ZipEntryCompression.DEFLATED;
+
+
+/**
+ * Artifact transform relocating a single jar, using the same relocation engine as {@link RepackageTask}.
+ * <p>
+ * Unlike the repackage task, each jar is relocated independently. Gradle runs the transform in parallel for
+ * multiple jars and caches the relocated jars, so they are shared between projects and builds. Artifacts other
+ * than jars are passed through unchanged.
+ * <p>
+ * The relocated jars are always created reproducibly: all entries, including the relocated service files,
+ * get a constant time and constant permissions, so the content of a relocated jar only depends on the input jar
+ * and the transform parameters.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see de.sayayi.plugin.gradle.repackage.RepackageExtension#relocation(String, org.gradle.api.Action)
+ */
+@CacheableTransform
+public abstract class RelocateTransform implements TransformAction<RelocateTransform.Parameters>
+{
+  @InputArtifact
+  @PathSensitive(NAME_ONLY)
+  public abstract @NotNull Provider<FileSystemLocation> getInputArtifact();
+
+
+  @Inject
+  protected abstract @NotNull ObjectFactory getObjectFactory();
+
+
+  @Override
+  public void transform(@NotNull TransformOutputs outputs)
+  {
+    val inputFile = getInputArtifact().get().getAsFile();
+
+    if (!inputFile.isFile() || !inputFile.getName().endsWith(".jar"))
+    {
+      outputs.file(inputFile);
+      return;
+    }
+
+    val parameters = getParameters();
+    val relocators = new ArrayList<Relocator>();
+
+    parameters.getRelocations().get().forEach((pattern, destination) ->
+        relocators.add(DefaultRelocator.create(pattern, destination)));
+
+    val outputFile = outputs.file(inputFile.getName());
+
+    //noinspection ResultOfMethodCallIgnored
+    outputFile.getParentFile().mkdirs();
+
+    RepackageCopyAction.builder()
+        .verbose(false)
+        .jarFile(outputFile)
+        .zipEntryCompression(DEFLATED)
+        .transformers(List.<Transformer>of(new ServiceFileTransformer()))
+        .relocators(relocators)
+        .patternSet(new PatternSet())
+        .reproducible(true)
+        .directoryEntries(true)
+        .stringRelocation(parameters.getStringRelocation().get())
+        .compressionSelector(new CompressionSelector(getObjectFactory().newInstance(CompressionPolicy.class)))
+        .memoryBudget(MemoryBudget.UNLIMITED)
+        .strip(parameters.getStrip().get())
+        .stripAnnotations(Set.of())
+        .sourceFiles(List.of(inputFile))
+        .closedWorld(false)
+        .archiveWriterType(ArchiveWriterType.CHANNEL)
+        .duplicateStrategy(DuplicateStrategy.FIRST_WINS)
+        .build()
+        .execute(List.of(inputFile));
+  }
+
+
+
+
+  /**
+   * Parameters for the relocate transform.
+   */
+  public interface Parameters extends TransformParameters
+  {
+    /**
+     * Returns the relocations, with the package pattern as key and the relocated package as value. The package
+     * pattern may be a regular expression enclosed in {@code %regex[...]}, see {@link RegexRelocator}.
+     * Relocations are applied in the order they have been added.
+     *
+     * @return  relocations property
+     */
+    @Input
+    @NotNull MapProperty<String,String> getRelocations();
+
+
+    @Input
+    @NotNull Property<StringRelocation> getStringRelocation();
+
+
+    /**
+     * Returns the content to be stripped from all classes.
+     *
+     * @return  strip options property
+     */
+    @Input
+    @NotNull SetProperty<StripOption> getStrip();
+
+
+    default void relocate(@NotNull String pattern, @NotNull String destination) {
+      getRelocations().put(pattern, destination);
+    }
+  }
+}
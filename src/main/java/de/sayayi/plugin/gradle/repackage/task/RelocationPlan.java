@@ -0,0 +1,187 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import lombok.Getter;
+import lombok.val;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.internal.file.DefaultFileTreeElement;
+import org.gradle.api.specs.Spec;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+
+/**
+ * Exact name table for all classes and resources present in the input files.
+ * <p>
+ * The plan is built before the archive is written from the central directories of the input archives only, as
+ * provided by the {@link InputInventory}. It contains the relocated name for each class (internal name), resource path and package directory which
+ * is changed by the relocators. Names present in the inputs but not relocated are not contained in the table.
+ * <p>
+ * In a closed world, names which are not present in the inputs are never relocated, even if a relocator
+ * matches them (e.g. references to classes of optional dependencies).
+ *
+ * @author Jeroen Gremmen
+ */
+final class RelocationPlan
+{
+  private static final Pattern VERSIONS_PREFIX_PATTERN = Pattern.compile("^META-INF/versions/\\d+/");
+
+  private final Map<String,String> relocatedNames = new HashMap<>();
+  private Set<String> plannedNames = new HashSet<>();
+  private final @Getter boolean closedWorld;
+  private final @Nullable Set<String> unresolvedNames;
+
+
+  private RelocationPlan(boolean closedWorld, boolean reportUnresolved)
+  {
+    this.closedWorld = closedWorld;
+    this.unresolvedNames = closedWorld && reportUnresolved ? new TreeSet<>() : null;
+  }
+
+
+  /**
+   * Creates a relocation plan for the given input files.
+   *
+   * @param inputInventory    inventory of the input files, not {@code null}
+   * @param archiveSpec       spec for selecting entries from archives, not {@code null}
+   * @param remapper          remapper without plan, used to calculate the relocated names, not {@code null}
+   * @param closedWorld       {@code true} if names not present in the inputs must not be relocated
+   * @param reportUnresolved  {@code true} if names not relocated in a closed world must be collected
+   *
+   * @return  relocation plan, never {@code null}
+   */
+  static @NotNull RelocationPlan create(@NotNull InputInventory inputInventory,
+                                        @NotNull Spec<FileTreeElement> archiveSpec,
+                                        @NotNull RelocatorRemapper remapper, boolean closedWorld,
+                                        boolean reportUnresolved) throws IOException
+  {
+    val plan = new RelocationPlan(closedWorld, reportUnresolved);
+
+    for(val archive: inputInventory.getArchives())
+      plan.addArchive(archive, archiveSpec, remapper);
+
+    for(val filePath: inputInventory.getFilePaths())
+      plan.addName(filePath, remapper);
+
+    // only required while the plan is created
+    plan.plannedNames = null;
+
+    return plan;
+  }
+
+
+  private void addArchive(@NotNull InputInventory.Archive archive, @NotNull Spec<FileTreeElement> archiveSpec,
+                          @NotNull RelocatorRemapper remapper)
+  {
+    for(val zipEntry: archive.getEntries())
+      if (!zipEntry.isDirectory())
+      {
+        val name = zipEntry.getName();
+
+        //noinspection DataFlowIssue
+        if (archiveSpec.isSatisfiedBy(new DefaultFileTreeElement(null,
+            new RelativePath(true, name.split("/")), null, null)))
+          addName(name, remapper);
+      }
+  }
+
+
+  private void addName(@NotNull String path, @NotNull RelocatorRemapper remapper)
+  {
+    val name = VERSIONS_PREFIX_PATTERN.matcher(path).replaceFirst("");
+    val key = name.endsWith(".class") ? name.substring(0, name.length() - 6) : name;
+
+    if (plannedNames.add(key))
+    {
+      addRelocatedName(key, remapper);
+
+      // packages are referenced by name as well (e.g. for classpath scanning)
+      for(int slashIndex = key.lastIndexOf('/'); slashIndex > 0; slashIndex = key.lastIndexOf('/', slashIndex - 1))
+      {
+        val directory = key.substring(0, slashIndex);
+        if (!plannedNames.add(directory))
+          break;
+
+        addRelocatedName(directory, remapper);
+      }
+    }
+  }
+
+
+  private void addRelocatedName(@NotNull String name, @NotNull RelocatorRemapper remapper)
+  {
+    val relocatedName = remapper.map(name);
+
+    if (relocatedName != null && !relocatedName.equals(name))
+      relocatedNames.put(name, relocatedName);
+  }
+
+
+  /**
+   * Returns the relocated name for a class or resource present in the inputs.
+   *
+   * @param name  internal class name or resource path, not {@code null}
+   *
+   * @return  relocated name or {@code null} if the name is not present in the inputs or is not relocated
+   */
+  @Contract(pure = true)
+  @Nullable String getRelocatedName(@NotNull String name) {
+    return relocatedNames.get(name);
+  }
+
+
+  /**
+   * Tells whether unresolved names are collected.
+   */
+  @Contract(pure = true)
+  boolean isReportingUnresolved() {
+    return unresolvedNames != null;
+  }
+
+
+  /**
+   * Records a name which would have been relocated, but is not present in the inputs.
+   *
+   * @param name  class name or resource path, not {@code null}
+   */
+  void addUnresolvedName(@NotNull String name)
+  {
+    if (unresolvedNames != null)
+      unresolvedNames.add(name);
+  }
+
+
+  @Contract(pure = true)
+  @NotNull Map<String,String> getRelocatedNames() {
+    return unmodifiableMap(relocatedNames);
+  }
+
+
+  @Contract(pure = true)
+  @NotNull Set<String> getUnresolvedNames() {
+    return unresolvedNames == null ? Set.of() : unmodifiableSet(unresolvedNames);
+  }
+}
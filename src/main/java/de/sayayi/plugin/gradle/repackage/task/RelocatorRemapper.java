@@ -21,11 +21,16 @@ import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.commons.Remapper;
 
 import java.util.List;
 import java.util.regex.Pattern;
 
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.CLASS_NAMES;
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.OFF;
+import static de.sayayi.plugin.gradle.repackage.util.ClassUtil.isClassOrResourceNameCandidate;
+
 
 @RequiredArgsConstructor
 final class RelocatorRemapper extends Remapper
@@ -33,6 +38,13 @@ final class RelocatorRemapper extends Remapper
   private static final Pattern INTERNAL_CLASS_PATTERN = Pattern.compile("(\\[*)?L(.+)");
 
   private final List<Relocator> relocators;
+  private final StringRelocation stringRelocation;
+  private final @Nullable RelocationPlan relocationPlan;
+
+
+  RelocatorRemapper(@NotNull List<Relocator> relocators, @NotNull StringRelocation stringRelocation) {
+    this(relocators, stringRelocation, null);
+  }
 
 
   @Contract(pure = true)
@@ -50,6 +62,10 @@ final class RelocatorRemapper extends Remapper
       val originalValue = name;
       var prefix = "";
 
+      // most string constants are messages, sql, format strings etc. which can never be relocated
+      if (stringRelocation == OFF || !isClassOrResourceNameCandidate(name))
+        return originalValue;
+
       val classMatcher = INTERNAL_CLASS_PATTERN.matcher(name);
       if (classMatcher.matches())
       {
@@ -57,22 +73,84 @@ final class RelocatorRemapper extends Remapper
         name = classMatcher.group(2);
       }
 
-      for(val relocator: relocators)
+      // a name containing both '/' and '.' is a resource path
+      val relocatePath = stringRelocation != CLASS_NAMES || name.indexOf('/') < 0 || name.indexOf('.') < 0;
+
+      if (relocationPlan != null)
       {
-        if (relocator.canRelocateClass(name))
-          return prefix + relocator.relocateClass(name);
+        val relocatedName = getPlannedValue(relocationPlan, name, relocatePath);
+        if (relocatedName != null)
+          return prefix + relocatedName;
 
-        if (relocator.canRelocatePath(name))
-          return prefix + relocator.relocatePath(name);
+        if (relocationPlan.isClosedWorld())
+        {
+          if (relocationPlan.isReportingUnresolved() && !name.equals(relocateValue(name, relocatePath)))
+            relocationPlan.addUnresolvedName(name);
+
+          return originalValue;
+        }
       }
 
-      return originalValue;
+      return prefix + relocateValue(name, relocatePath);
     }
 
     return super.mapValue(object);
   }
 
 
+  /**
+   * Looks up a string value in the relocation plan. The plan contains internal class names and resource paths
+   * only, so a leading slash (absolute resource path), a trailing semicolon (type descriptor) and a
+   * {@code .class} extension are removed for the lookup and re-applied to the relocated name.
+   *
+   * @param relocationPlan  relocation plan, not {@code null}
+   * @param name            string value without descriptor prefix, not {@code null}
+   * @param relocatePath    {@code true} if the value may be relocated as a resource path
+   *
+   * @return  relocated value or {@code null} if the plan doesn't contain the name
+   */
+  @Contract(pure = true)
+  private static @Nullable String getPlannedValue(@NotNull RelocationPlan relocationPlan, @NotNull String name,
+                                                  boolean relocatePath)
+  {
+    val leadingSlash = name.startsWith("/") ? "/" : "";
+    val suffix = name.endsWith(";") ? ";" : name.endsWith(".class") ? ".class" : "";
+    val key = name.substring(leadingSlash.length(), name.length() - suffix.length());
+
+    if (key.indexOf('/') < 0)
+    {
+      val relocatedClassName = relocationPlan.getRelocatedName(key.replace('.', '/'));
+      if (relocatedClassName != null)
+        return leadingSlash + relocatedClassName.replace('/', '.') + suffix;
+    }
+
+    val relocatedName = relocatePath ? relocationPlan.getRelocatedName(key) : null;
+
+    return relocatedName == null ? null : leadingSlash + relocatedName + suffix;
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull String relocateValue(@NotNull String name, boolean relocatePath)
+  {
+    for(val relocator: relocators)
+    {
+      val relocatedClassName = relocator.tryRelocateClass(name);
+      if (relocatedClassName != null)
+        return relocatedClassName;
+
+      if (relocatePath)
+      {
+        val relocatedPath = relocator.tryRelocatePath(name);
+        if (relocatedPath != null)
+          return relocatedPath;
+      }
+    }
+
+    return name;
+  }
+
+
   @Override
   public String map(String name)
   {
@@ -91,11 +169,36 @@ final class RelocatorRemapper extends Remapper
       name = classMatcher.group(2);
     }
 
+    if (relocationPlan != null)
+    {
+      val relocatedName = relocationPlan.getRelocatedName(name);
+      if (relocatedName != null)
+        return prefix + relocatedName;
+
+      if (relocationPlan.isClosedWorld())
+      {
+        if (relocationPlan.isReportingUnresolved() && !name.equals(relocateName(name)))
+          relocationPlan.addUnresolvedName(name);
+
+        return originalValue;
+      }
+    }
+
+    return prefix + relocateName(name);
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull String relocateName(@NotNull String name)
+  {
     for(val relocator: relocators)
-      if (relocator.canRelocatePath(name))
-        return prefix + relocator.relocatePath(name);
+    {
+      val relocatedName = relocator.tryRelocatePath(name);
+      if (relocatedName != null)
+        return relocatedName;
+    }
 
-    return originalValue;
+    return name;
   }
 
 
@@ -16,8 +16,12 @@
 package de.sayayi.plugin.gradle.repackage.task;
 
 import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
 import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
 import de.sayayi.plugin.gradle.repackage.transformer.TransformerContext;
+import de.sayayi.plugin.gradle.repackage.util.CompactStringSet;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -48,23 +52,40 @@ import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import static de.sayayi.plugin.gradle.repackage.task.CompressionRule.STORE;
+import static java.io.File.createTempFile;
+import static java.io.OutputStream.nullOutputStream;
+import static java.lang.Integer.parseInt;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
 import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Arrays.copyOf;
+import static java.util.Calendar.FEBRUARY;
+import static java.util.Collections.list;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.joining;
 import static lombok.AccessLevel.PACKAGE;
+import static org.apache.commons.io.FileUtils.contentEquals;
 import static org.apache.commons.io.IOUtils.copyLarge;
 import static org.apache.tools.zip.UnixStat.DIR_FLAG;
 import static org.apache.tools.zip.UnixStat.FILE_FLAG;
-import static org.apache.tools.zip.Zip64Mode.AsNeeded;
 import static org.apache.tools.zip.ZipOutputStream.DEFLATED;
 import static org.apache.tools.zip.ZipOutputStream.STORED;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
@@ -74,10 +95,23 @@ import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
  * @author Jeroen Gremmen
  */
 @Slf4j
-@RequiredArgsConstructor(access = PACKAGE)
+@Builder(access = PACKAGE)
 class RepackageCopyAction implements CopyAction
 {
   private static final Pattern VERSIONS_PREFIX_PATTERN = Pattern.compile("^(META-INF/versions/\\d+/)(.*)");
+  private static final Pattern MULTI_RELEASE_PATTERN = Pattern.compile("^META-INF/versions/(\\d+)/(.+)");
+  private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+  private static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+  private static final String MODULE_INFO_PATH = "module-info.class";
+
+  /** Same constant time as used by Gradle for archive tasks not preserving file timestamps. */
+  static final long CONSTANT_TIME_FOR_ZIP_ENTRIES =
+      new GregorianCalendar(1980, FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+  static final int CONSTANT_FILE_PERMISSIONS = 0644;
+  static final int CONSTANT_DIR_PERMISSIONS = 0755;
+
+  /** Maximum number of bytes of processed entries waiting to be written to the archive. */
+  private static final int MAX_PENDING_ENTRY_BYTES = 32 * 1024 * 1024;
 
   private final boolean verbose;
   private final File jarFile;
@@ -85,31 +119,162 @@ class RepackageCopyAction implements CopyAction
   private final List<Transformer> transformers;
   private final List<Relocator> relocators;
   private final PatternSet patternSet;
-
-  private final Set<String> visitedDirectories = new HashSet<>();
-  private final Set<String> visitedFiles = new HashSet<>();
+  private final boolean reproducible;
+  private final boolean directoryEntries;
+  private final @Nullable File classLoadOrderFile;
+  private final @Nullable Integer targetRelease;
+  private final @NotNull StringRelocation stringRelocation;
+  private final @NotNull CompressionSelector compressionSelector;
+
+  private final @NotNull MemoryBudget memoryBudget;
+  private final @NotNull Set<StripOption> strip;
+  private final @NotNull Set<String> stripAnnotations;
+  private final @Nullable Collection<File> sourceFiles;
+  private final boolean closedWorld;
+  private final @Nullable File outputDirectory;
+  private final boolean directoryOnly;
+  private final @NotNull ArchiveWriterType archiveWriterType;
+  private final boolean jandexIndex;
+  private final @NotNull DuplicateStrategy duplicateStrategy;
+
+  private final CompactStringSet visitedDirectories = new CompactStringSet();
+  private final CompactStringSet visitedFiles = new CompactStringSet();
 
 
   @Override
-  public @NotNull WorkResult execute(@NotNull CopyActionProcessingStream stream)
-  {
-    try(val zipOutputStream = new ZipOutputStream(jarFile)) {
-      if (zipEntryCompression == ZipEntryCompression.STORED)
-        zipOutputStream.setMethod(STORED);
-      else if (zipEntryCompression == ZipEntryCompression.DEFLATED)
-        zipOutputStream.setMethod(DEFLATED);
+  public @NotNull WorkResult execute(@NotNull CopyActionProcessingStream stream) {
+    return repackage(stream::process);
+  }
 
-      zipOutputStream.setUseZip64(AsNeeded);
-      zipOutputStream.setEncoding("UTF8");
 
-      stream.process(new StreamAction(zipOutputStream));
+  /**
+   * Repackages the given archives, without using a copy spec.
+   *
+   * @param archiveFiles  archives to be repackaged, not {@code null}
+   *
+   * @return  work result, never {@code null}
+   */
+  @NotNull WorkResult execute(@NotNull Collection<File> archiveFiles)
+  {
+    return repackage(streamAction -> {
+      for(val archiveFile: archiveFiles)
+        streamAction.processArchive(archiveFile);
+    });
+  }
+
 
-      processTransformers(zipOutputStream);
+  private @NotNull WorkResult repackage(@NotNull Consumer<StreamAction> processor)
+  {
+    try(val output = openOutput()) {
+      processor.accept(output.streamAction);
+      return WorkResults.didWork(output.commit());
     } catch(Exception ex) {
       throw new GradleException("Could not create repackaged jar '" + jarFile + "'", ex);
     }
+  }
+
+
+  /**
+   * Opens the output for the jar file. The jar file itself is only replaced when the output is committed.
+   *
+   * @return  output, never {@code null}
+   */
+  @NotNull Output openOutput() throws IOException {
+    return openOutput(createInputInventory());
+  }
+
+
+  /**
+   * Opens the output for the jar file, using the given inventory of the input files. The inventory may be
+   * shared by multiple outputs created from the same input files.
+   *
+   * @param inputInventory  inventory of the input files, not {@code null}
+   *
+   * @return  output, never {@code null}
+   */
+  @NotNull Output openOutput(@NotNull InputInventory inputInventory) throws IOException
+  {
+    val output = new Output(inputInventory, createRelocationPlan(inputInventory));
+
+    try {
+      output.streamAction.scanDuplicates(inputInventory);
+    } catch(Exception ex) {
+      output.close();
+      throw ex;
+    }
+
+    return output;
+  }
+
+
+  /**
+   * Creates the inventory of the source files. The inventory is read on first access.
+   *
+   * @return  input inventory, never {@code null}
+   */
+  @Contract(pure = true)
+  @NotNull InputInventory createInputInventory() {
+    return new InputInventory(sourceFiles == null ? List.of() : sourceFiles);
+  }
+
+
+  /**
+   * Replaces the jar file with the newly created jar file, unless both files have the same content. Keeping
+   * the existing file preserves its modification time, so tasks consuming the jar are not invalidated.
+   *
+   * @param newJarFile  newly created jar file, not {@code null}
+   *
+   * @return  {@code true} if the jar file has been replaced, {@code false} if the content is unchanged
+   */
+  private boolean replaceIfChanged(@NotNull File newJarFile) throws IOException
+  {
+    if (jarFile.isFile() && contentEquals(jarFile, newJarFile))
+    {
+      if (verbose)
+        log.info("Repackaged jar is unchanged: {}", jarFile);
+
+      return false;
+    }
 
-    return WorkResults.didWork(true);
+    try {
+      move(newJarFile.toPath(), jarFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch(AtomicMoveNotSupportedException ex) {
+      move(newJarFile.toPath(), jarFile.toPath(), REPLACE_EXISTING);
+    }
+
+    return true;
+  }
+
+
+  /**
+   * Creates the relocation plan for the source files. The plan is only required in a closed world; in an open
+   * world it doesn't change any name, so it is only created in verbose mode for reporting the relocated names.
+   * If no plan is returned, names are relocated by the relocators directly.
+   *
+   * @param inputInventory  inventory of the input files, not {@code null}
+   *
+   * @return  relocation plan or {@code null}
+   */
+  private @Nullable RelocationPlan createRelocationPlan(@NotNull InputInventory inputInventory) throws IOException
+  {
+    if (sourceFiles == null || relocators.isEmpty() || !(closedWorld || verbose))
+      return null;
+
+    val relocationPlan = RelocationPlan.create(inputInventory, patternSet.getAsSpec(),
+        new RelocatorRemapper(relocators, stringRelocation), closedWorld, verbose);
+
+    if (verbose)
+    {
+      val relocatedNames = relocationPlan.getRelocatedNames();
+
+      log.info("Relocation plan: {} names relocated{}", relocatedNames.size(), closedWorld ? " (closed world)" : "");
+
+      if (log.isDebugEnabled())
+        new TreeMap<>(relocatedNames).forEach((name, relocatedName) ->
+            log.debug("Relocate {} -> {}", name, relocatedName));
+    }
+
+    return closedWorld ? relocationPlan : null;
   }
 
 
@@ -117,27 +282,262 @@ class RepackageCopyAction implements CopyAction
   {
     for(val transformer: transformers)
       if (transformer.hasTransformedResource())
+      {
+        val event = new TransformerFlushEvent();
+        event.begin();
+
         transformer.modifyOutputStream(zipOutputStream);
+
+        event.end();
+        if (event.shouldCommit())
+        {
+          event.transformer = transformer.getClass().getName();
+          event.commit();
+        }
+      }
+  }
+
+
+
+
+  /**
+   * Output of a repackage run, writing to a temporary file which replaces the jar file when committed. If an
+   * output directory has been configured, the entries are written to that directory as well or, in directory
+   * only mode, exclusively.
+   */
+  final class Output implements AutoCloseable
+  {
+    private final @Nullable RelocationPlan relocationPlan;
+    private final @Nullable File newJarFile;
+    private final @Nullable ArchiveWriter archiveWriter;
+    private final @Nullable DirectoryOutputStream directoryOutputStream;
+    private final ZipOutputStream zipOutputStream;
+    private boolean archiveClosed;
+
+    final StreamAction streamAction;
+
+
+    private Output(@NotNull InputInventory inputInventory, @Nullable RelocationPlan relocationPlan)
+        throws IOException
+    {
+      this.relocationPlan = relocationPlan;
+
+      WriteBehindZipOutputStream archiveOutputStream = null;
+
+      if (directoryOnly)
+      {
+        newJarFile = null;
+        archiveWriter = null;
+      }
+      else
+      {
+        ClassLoadOrder classLoadOrder = null;
+
+        if (classLoadOrderFile != null)
+        {
+          if (verbose)
+            log.info("Reorder entries using class load order: {}", classLoadOrderFile);
+
+          classLoadOrder = ClassLoadOrder.create(inputInventory.getLoadedClassNames(classLoadOrderFile),
+              new RelocatorRemapper(relocators, stringRelocation));
+        }
+
+        newJarFile = createTempFile(jarFile.getName(), ".tmp", jarFile.getParentFile());
+
+        val writer = archiveWriterType.createWriter(newJarFile,
+            zipEntryCompression == ZipEntryCompression.STORED ? STORED : DEFLATED, memoryBudget);
+
+        // entries are ordered before they are handed over to the archive writer
+        archiveWriter = classLoadOrder == null ? writer : classLoadOrder.createOrderingWriter(writer, memoryBudget);
+
+        archiveOutputStream = new WriteBehindZipOutputStream(archiveWriter, MAX_PENDING_ENTRY_BYTES, memoryBudget);
+      }
+
+      directoryOutputStream = outputDirectory == null
+          ? null
+          : new DirectoryOutputStream(outputDirectory, archiveOutputStream, memoryBudget);
+      zipOutputStream = directoryOutputStream != null ? directoryOutputStream : archiveOutputStream;
+      streamAction = new StreamAction(zipOutputStream, relocationPlan);
+    }
+
+
+    /**
+     * Adds the transformed resources, completes the archive and replaces the jar file if its content has
+     * changed.
+     *
+     * @return  {@code true} if the jar file has been replaced or the output directory has been changed,
+     *          {@code false} if the content is unchanged
+     */
+    boolean commit() throws IOException
+    {
+      // transformers create their entries themselves, so make sure they're not using the level of the last entry
+      zipOutputStream.setLevel(compressionSelector.getDefaultLevel());
+
+      val generatedEntryOutputStream =
+          new GeneratedEntryOutputStream(zipOutputStream, streamAction.getGeneratedEntryTime());
+
+      processTransformers(generatedEntryOutputStream);
+      if (streamAction.classIndex != null)
+        streamAction.classIndex.writeTo(generatedEntryOutputStream, new ZipEntry(ClassIndex.INDEX_PATH));
+
+      closeArchive();
+
+      if (relocationPlan != null)
+        for(val unresolvedName: relocationPlan.getUnresolvedNames())
+          log.info("Not relocated, as it is not present in the input files: {}", unresolvedName);
+
+      var changed = directoryOutputStream != null && directoryOutputStream.isChanged();
+
+      if (newJarFile != null)
+        changed |= replaceIfChanged(newJarFile);
+
+      return changed;
+    }
+
+
+    private void closeArchive() throws IOException
+    {
+      if (!archiveClosed)
+      {
+        archiveClosed = true;
+
+        try {
+          zipOutputStream.close();
+        } finally {
+          if (archiveWriter != null)
+            archiveWriter.close();
+        }
+      }
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+      try {
+        closeArchive();
+      } finally {
+        if (newJarFile != null)
+          deleteIfExists(newJarFile.toPath());
+      }
+    }
   }
 
 
 
 
-  private class StreamAction implements CopyActionProcessingStreamAction
+  /**
+   * Zip output stream for entries generated by transformers, which create their entries without time and
+   * permissions. Entries without a time get the given generated entry time, so they don't change between
+   * builds with the same input. In reproducible mode, the constant permissions are applied as well.
+   */
+  private final class GeneratedEntryOutputStream extends ZipOutputStream
+  {
+    private final ZipOutputStream zipOutputStream;
+    private final long time;
+
+
+    private GeneratedEntryOutputStream(@NotNull ZipOutputStream zipOutputStream, long time)
+    {
+      super(nullOutputStream());
+
+      this.zipOutputStream = zipOutputStream;
+      this.time = time;
+    }
+
+
+    @Override
+    public void setLevel(int level) {
+      zipOutputStream.setLevel(level);
+    }
+
+
+    @Override
+    public void putNextEntry(@NotNull ZipEntry entry) throws IOException
+    {
+      if (reproducible)
+      {
+        entry.setTime(time);
+        entry.setUnixMode(entry.isDirectory()
+            ? DIR_FLAG | CONSTANT_DIR_PERMISSIONS
+            : FILE_FLAG | CONSTANT_FILE_PERMISSIONS);
+      }
+      else if (entry.getTime() == -1)
+        entry.setTime(time);
+
+      zipOutputStream.putNextEntry(entry);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+      zipOutputStream.write(b);
+    }
+
+
+    @Override
+    public void write(@NotNull byte[] b, int offset, int length) throws IOException {
+      zipOutputStream.write(b, offset, length);
+    }
+
+
+    @Override
+    public void closeEntry() throws IOException {
+      zipOutputStream.closeEntry();
+    }
+
+
+    @Override
+    public void flush() {
+    }
+  }
+
+
+
+
+  /**
+   * Source for the content of archive entries.
+   */
+  interface ArchiveEntrySource
+  {
+    @NotNull InputStream getInputStream(@NotNull ZipEntry zipEntry) throws IOException;
+  }
+
+
+
+
+  final class StreamAction implements CopyActionProcessingStreamAction
   {
     private final ZipOutputStream jarOutputStream;
     private final RelocatorRemapper remapper;
+    private final @Nullable ClassIndex classIndex;
+
+    /** Duplicate entries of the source files, only present for {@link DuplicateStrategy#LAST_WINS}. */
+    private @Nullable DuplicateEntries duplicateEntries;
+
+    /** Newest modification time of the processed input entries or {@code -1} if unknown. */
+    private long newestTime = -1;
 
 
-    private StreamAction(@NotNull ZipOutputStream jarOutputStream)
+    private StreamAction(@NotNull ZipOutputStream jarOutputStream, @Nullable RelocationPlan relocationPlan)
     {
       this.jarOutputStream = jarOutputStream;
-      this.remapper = new RelocatorRemapper(relocators);
+      this.remapper = new RelocatorRemapper(relocators, stringRelocation, relocationPlan);
+      this.classIndex = jandexIndex ? new ClassIndex() : null;
+    }
+
+
+    /**
+     * Tells whether class files are passed through ASM, either for relocating or for stripping.
+     */
+    @Contract(pure = true)
+    private boolean isProcessingClasses() {
+      return remapper.hasRelocators() || !strip.isEmpty() || !stripAnnotations.isEmpty();
     }
 
 
     @Contract(pure = true)
-    protected boolean isArchive(@NotNull FileCopyDetails fileDetails) {
+    boolean isArchive(@NotNull FileCopyDetails fileDetails) {
       return fileDetails.getRelativePath().getPathString().endsWith(".jar");
     }
 
@@ -148,6 +548,76 @@ class RepackageCopyAction implements CopyAction
     }
 
 
+    /**
+     * Tells whether only a single entry is written for the given archive element, if it is contained in more
+     * than one archive.
+     */
+    @Contract(pure = true)
+    private boolean isDeduplicated(@NotNull ArchiveFileTreeElement archiveFile)
+    {
+      val path = archiveFile.getRelativePath().getPathString();
+
+      return (archiveFile.isClassFile() || !isTransformable(archiveFile)) &&
+             !MANIFEST_PATH.equals(path) && !isStaleClassIndex(path);
+    }
+
+
+    /**
+     * Scans the source files for duplicate entries, as required by the duplicate strategy. Conflicting
+     * duplicates are reported or fail the build before any entry is written.
+     *
+     * @param inputInventory  inventory of the input files, not {@code null}
+     */
+    private void scanDuplicates(@NotNull InputInventory inputInventory) throws IOException
+    {
+      if (duplicateStrategy == DuplicateStrategy.FIRST_WINS || sourceFiles == null)
+        return;
+
+      val duplicates = DuplicateEntries.scan(inputInventory, this::createEntrySelector, this::isDeduplicated);
+      val conflicts = duplicates.getConflicts();
+
+      switch(duplicateStrategy)
+      {
+        case LAST_WINS:
+          duplicateEntries = duplicates;
+          break;
+
+        case WARN_ON_CONFLICT:
+          conflicts.forEach((path, archiveFiles) ->
+              log.warn("Duplicate entry {} with different content in {}", path, getNames(archiveFiles)));
+          break;
+
+        case FAIL_ON_CONFLICT:
+          if (!conflicts.isEmpty())
+          {
+            val message = new StringBuilder("Duplicate entries with different content found:");
+
+            conflicts.forEach((path, archiveFiles) ->
+                message.append("\n  ").append(path).append(" in ").append(getNames(archiveFiles)));
+
+            throw new GradleException(message.toString());
+          }
+          break;
+      }
+    }
+
+
+    @Contract(pure = true)
+    private @NotNull String getNames(@NotNull List<File> files) {
+      return files.stream().map(File::getName).collect(joining(", "));
+    }
+
+
+    /**
+     * Tells whether the given path is an index which is replaced by the index created for the repackaged
+     * classes.
+     */
+    @Contract(pure = true)
+    private boolean isStaleClassIndex(@NotNull String path) {
+      return classIndex != null && ClassIndex.INDEX_PATH.equals(path);
+    }
+
+
     @Override
     public void processFile(@NotNull FileCopyDetailsInternal details)
     {
@@ -160,12 +630,15 @@ class RepackageCopyAction implements CopyAction
 
     private void visitDir(@NotNull FileCopyDetails dirDetails)
     {
+      if (!directoryEntries)
+        return;
+
       try {
         // Trailing slash in name indicates that entry is a directory
         val archiveEntry = new ZipEntry(dirDetails.getRelativePath().getPathString() + '/');
 
-        archiveEntry.setTime(dirDetails.getLastModified());
-        archiveEntry.setUnixMode(DIR_FLAG | dirDetails.getPermissions().toUnixNumeric());
+        archiveEntry.setTime(getLastModified(dirDetails));
+        archiveEntry.setUnixMode(DIR_FLAG | getPermissions(dirDetails));
 
         jarOutputStream.putNextEntry(archiveEntry);
         jarOutputStream.closeEntry();
@@ -182,58 +655,200 @@ class RepackageCopyAction implements CopyAction
 
       if (!isArchive(fileDetails))
       {
+        if (isStaleClassIndex(fileDetails.getRelativePath().getPathString()))
+          return;
+
         try {
-          if (remapper.hasRelocators() && isClass(fileDetails))
+          if (isProcessingClasses() && isClass(fileDetails))
             remapClass(fileDetails);
           else if (isTransformable(fileDetails))
             transform(fileDetails);
           else
           {
-            val archiveEntry = new ZipEntry(safeMap(fileDetails.getRelativePath().getPathString()));
+            val event = new EntryEvent();
+            event.begin();
+
+            val path = fileDetails.getRelativePath().getPathString();
+            val archiveEntry = new ZipEntry(safeMap(path));
+
+            archiveEntry.setTime(getLastModified(fileDetails));
+            archiveEntry.setUnixMode(FILE_FLAG | getPermissions(fileDetails));
+
+            val size = fileDetails.getSize();
 
-            archiveEntry.setTime(fileDetails.getLastModified());
-            archiveEntry.setUnixMode(FILE_FLAG | fileDetails.getPermissions().toUnixNumeric());
+            putNextEntry(archiveEntry, size);
+
+            if (classIndex != null && ClassIndex.isIndexed(archiveEntry.getName()))
+            {
+              val classBytes = readAllBytes(fileDetails.getFile().toPath());
+
+              classIndex.add(path, classBytes);
+              jarOutputStream.write(classBytes);
+            }
+            else
+              fileDetails.copyTo(jarOutputStream);
 
-            jarOutputStream.putNextEntry(archiveEntry);
-            fileDetails.copyTo(jarOutputStream);
             jarOutputStream.closeEntry();
+
+            event.complete(path, archiveEntry.getName(), EntryEvent.COPY, size, size, 0);
           }
         } catch(Exception ex) {
           throw new GradleException(String.format("Could not add %s to jar '%s'.", fileDetails, jarFile), ex);
         }
       }
       else
-        processArchive(fileDetails);
+        processArchive(fileDetails.getFile());
     }
 
 
     @SneakyThrows(IOException.class)
-    private void processArchive(@NotNull FileCopyDetails fileDetails)
-    {
-      try(val archive = new ZipFile(fileDetails.getFile())) {
-        val patternSpec = patternSet.getAsSpec();
-
-        StreamUtils
-            .enumerationAsStream(archive.getEntries())
-            .map(zipEntry -> new ArchiveFileTreeElement(new RelativeArchivePath(zipEntry)))
-            .filter(archiveElement ->
-                patternSpec.isSatisfiedBy(archiveElement.asFileTreeElement()) &&
-                archiveElement.getRelativePath().isFile())
-            .forEach(archiveElement -> visitArchiveFile(archiveElement, archive));
+    private void processArchive(@NotNull File archiveFile)
+    {
+      val event = new ArchiveEvent();
+      event.begin();
+
+      try(val archive = new ZipFile(archiveFile)) {
+        val entrySelector = createEntrySelector(archive);
+        var zipEntries = StreamUtils.enumerationAsStream(archive.getEntries());
+
+        // make the entry order independent of the way the input archive has been assembled
+        if (reproducible)
+          zipEntries = zipEntries.sorted(comparing(ZipEntry::getName));
+
+        zipEntries
+            .map(entrySelector)
+            .filter(Objects::nonNull)
+            .forEach(archiveElement -> {
+              event.entries++;
+              visitArchiveFile(archiveElement, archive::getInputStream);
+            });
       }
+
+      event.end();
+      if (event.shouldCommit())
+      {
+        event.archive = archiveFile.getPath();
+        event.archiveSize = archiveFile.length();
+        event.commit();
+      }
+    }
+
+
+    /**
+     * Creates the function selecting the archive elements to be processed from the entries of the given archive.
+     * The function takes multi-release flattening and the class filter into account.
+     *
+     * @param archive  archive, not {@code null}
+     *
+     * @return  function returning the archive element for an entry or {@code null} if the entry is skipped
+     */
+    @NotNull Function<ZipEntry,ArchiveFileTreeElement> createEntrySelector(@NotNull ZipFile archive) {
+      return createEntrySelector(list(archive.getEntries()));
+    }
+
+
+    /**
+     * Creates the function selecting the archive elements to be processed from the given archive entries.
+     * The function takes multi-release flattening and the class filter into account.
+     *
+     * @param zipEntries  all entries of the archive, not {@code null}
+     *
+     * @return  function returning the archive element for an entry or {@code null} if the entry is skipped
+     */
+    @NotNull Function<ZipEntry,ArchiveFileTreeElement> createEntrySelector(@NotNull List<ZipEntry> zipEntries)
+    {
+      val patternSpec = patternSet.getAsSpec();
+      val releaseVariants = targetRelease == null ? null : selectReleaseVariants(zipEntries);
+
+      return zipEntry -> {
+        val archivePath = releaseVariants == null
+            ? new RelativeArchivePath(zipEntry)
+            : flattenMultiRelease(zipEntry, releaseVariants);
+        if (archivePath == null || !archivePath.isFile())
+          return null;
+
+        val archiveElement = new ArchiveFileTreeElement(archivePath);
+
+        return patternSpec.isSatisfiedBy(archiveElement.asFileTreeElement()) ? archiveElement : null;
+      };
+    }
+
+
+    /**
+     * Selects the best multi-release variant for the target release for each path in the given archive entries.
+     *
+     * @param zipEntries  archive entries, not {@code null}
+     *
+     * @return  map with the path as key and the selected release as value. Paths without a variant for a
+     *          release &lt;= target release are not contained in the map.
+     */
+    @Contract(pure = true)
+    private @NotNull Map<String,Integer> selectReleaseVariants(@NotNull List<ZipEntry> zipEntries)
+    {
+      val releaseVariants = new HashMap<String,Integer>();
+
+      for(val zipEntry: zipEntries)
+      {
+        val multiReleaseMatcher = MULTI_RELEASE_PATTERN.matcher(zipEntry.getName());
+        if (multiReleaseMatcher.matches() && !MODULE_INFO_PATH.equals(multiReleaseMatcher.group(2)))
+        {
+          val release = parseInt(multiReleaseMatcher.group(1));
+          if (release <= targetRelease)
+            releaseVariants.merge(multiReleaseMatcher.group(2), release, Math::max);
+        }
+      }
+
+      return releaseVariants;
+    }
+
+
+    /**
+     * Maps the selected multi-release variant of an entry to its base location and drops all other variants.
+     * Versioned module descriptors are always dropped, as a module descriptor compiled for a specific release
+     * doesn't describe the flattened archive.
+     *
+     * @param zipEntry         archive entry
+     * @param releaseVariants  selected releases, as returned by {@link #selectReleaseVariants(List)}
+     *
+     * @return  archive path for the entry or {@code null} if the entry must be dropped
+     */
+    @Contract(pure = true)
+    private RelativeArchivePath flattenMultiRelease(@NotNull ZipEntry zipEntry,
+                                                    @NotNull Map<String,Integer> releaseVariants)
+    {
+      val name = zipEntry.getName();
+      val multiReleaseMatcher = MULTI_RELEASE_PATTERN.matcher(name);
+
+      if (multiReleaseMatcher.matches())
+      {
+        val path = multiReleaseMatcher.group(2);
+
+        return !MODULE_INFO_PATH.equals(path) && Integer.valueOf(multiReleaseMatcher.group(1)).equals(releaseVariants.get(path))
+            ? new RelativeArchivePath(zipEntry, path)
+            : null;
+      }
+
+      return releaseVariants.containsKey(name) ? null : new RelativeArchivePath(zipEntry);
     }
 
 
     @SneakyThrows(IOException.class)
-    private void visitArchiveFile(@NotNull ArchiveFileTreeElement archiveFile, @NotNull ZipFile archive)
+    void visitArchiveFile(@NotNull ArchiveFileTreeElement archiveFile, @NotNull ArchiveEntrySource archive)
     {
+      if (isStaleClassIndex(archiveFile.getRelativePath().getPathString()))
+        return;
+
       if (archiveFile.isClassFile() || !isTransformable(archiveFile))
       {
         val archiveFilePath = archiveFile.getRelativePath();
+        val path = archiveFilePath.getPathString();
 
-        if (visitedFiles.add(archiveFilePath.getPathString()))
+        // with last wins, all but the last occurrence of a duplicate entry are skipped
+        if ((duplicateEntries == null || duplicateEntries.isLastOccurrence(path)) && visitedFiles.add(path))
         {
-          if (!remapper.hasRelocators() || !archiveFile.isClassFile())
+          if (targetRelease != null && MANIFEST_PATH.equals(path))
+            copyManifestWithoutMultiRelease(archiveFilePath, archive);
+          else if (!isProcessingClasses() || !archiveFile.isClassFile())
             copyArchiveEntry(archiveFilePath, archive);
           else
             remapClass(archiveFilePath, archive);
@@ -246,7 +861,7 @@ class RepackageCopyAction implements CopyAction
 
     private void addParentDirectories(@Nullable RelativeArchivePath file) throws IOException
     {
-      if (file == null)
+      if (file == null || !directoryEntries)
         return;
 
       if (file.isFile())
@@ -255,13 +870,22 @@ class RepackageCopyAction implements CopyAction
       {
         addParentDirectories(file.getParent());
 
+        if (reproducible)
+        {
+          file.entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+          file.entry.setUnixMode(DIR_FLAG | CONSTANT_DIR_PERMISSIONS);
+        }
+        else if (file.entry.getTime() == -1)
+          file.entry.setTime(getGeneratedEntryTime());
+
         jarOutputStream.putNextEntry(file.entry);
         jarOutputStream.closeEntry();
       }
     }
 
 
-    private void remapClass(@NotNull RelativeArchivePath file, @NotNull ZipFile archive) throws IOException
+    private void remapClass(@NotNull RelativeArchivePath file, @NotNull ArchiveEntrySource archive)
+        throws IOException
     {
       if (file.isClassFile())
       {
@@ -270,7 +894,7 @@ class RepackageCopyAction implements CopyAction
         val zipEntry = file.entry;
 
         try(val classInputStream = archive.getInputStream(zipEntry)) {
-          remapClass(classInputStream, file.getPathString(), zipEntry.getTime());
+          remapClass(classInputStream, file.getPathString(), getLastModified(zipEntry));
         }
       }
     }
@@ -279,7 +903,7 @@ class RepackageCopyAction implements CopyAction
     private void remapClass(@NotNull FileCopyDetails fileCopyDetails) throws IOException
     {
       try(val classInputStream = newInputStream(fileCopyDetails.getFile().toPath())) {
-        remapClass(classInputStream, fileCopyDetails.getPath(), fileCopyDetails.getLastModified());
+        remapClass(classInputStream, fileCopyDetails.getPath(), getLastModified(fileCopyDetails));
       }
     }
 
@@ -287,10 +911,21 @@ class RepackageCopyAction implements CopyAction
     private void remapClass(@NotNull InputStream classInputStream, @NotNull String path, long lastModified)
         throws IOException
     {
+      val event = new EntryEvent();
+      event.begin();
+
+      // counting relocations is only done if the event is recorded
+      val hitCountingRemapper = event.isEnabled() ? new HitCountingRemapper(remapper) : null;
       val classWriter = new ClassWriter(0);
+      val classFile = classInputStream.readAllBytes();
 
       try {
-        new ClassReader(classInputStream).accept(new ClassRemapper(classWriter, remapper), EXPAND_FRAMES);
+        val classReader = new ClassReader(classFile);
+        val classVisitor = ClassStripper.wrap(
+            new ClassRemapper(classWriter, hitCountingRemapper != null ? hitCountingRemapper : remapper),
+            classReader.getClassName(), strip, stripAnnotations, relocators);
+
+        classReader.accept(classVisitor, EXPAND_FRAMES);
       } catch(Throwable ex) {
         throw new GradleException("Error while remapping class file " + path, ex);
       }
@@ -298,10 +933,20 @@ class RepackageCopyAction implements CopyAction
       val archiveEntry = new ZipEntry(mapClassPath(path));
 
       archiveEntry.setTime(lastModified);
+      if (reproducible)
+        archiveEntry.setUnixMode(FILE_FLAG | CONSTANT_FILE_PERMISSIONS);
+
+      val classBytes = classWriter.toByteArray();
 
-      jarOutputStream.putNextEntry(archiveEntry);
-      jarOutputStream.write(classWriter.toByteArray());
+      if (classIndex != null && ClassIndex.isIndexed(archiveEntry.getName()))
+        classIndex.add(path, classBytes);
+
+      putNextEntry(archiveEntry, classBytes.length);
+      jarOutputStream.write(classBytes);
       jarOutputStream.closeEntry();
+
+      event.complete(path, archiveEntry.getName(), EntryEvent.REMAP, classFile.length, classBytes.length,
+          hitCountingRemapper != null ? hitCountingRemapper.hits : 0);
     }
 
 
@@ -317,25 +962,92 @@ class RepackageCopyAction implements CopyAction
     }
 
 
-    private void copyArchiveEntry(RelativeArchivePath archiveFile, ZipFile archive) throws IOException
+    private void copyArchiveEntry(RelativeArchivePath archiveFile, ArchiveEntrySource archive) throws IOException
     {
-      val entry = new ZipEntry(safeMap(archiveFile.entry.getName()));
-      entry.setTime(archiveFile.entry.getTime());
+      val event = new EntryEvent();
+      event.begin();
+
+      val entry = new ZipEntry(safeMap(archiveFile.getPathString()));
+      entry.setTime(getLastModified(archiveFile.entry));
+      if (reproducible)
+        entry.setUnixMode(FILE_FLAG | CONSTANT_FILE_PERMISSIONS);
 
       val mappedFile = new RelativeArchivePath(entry);
       addParentDirectories(mappedFile);
 
-      jarOutputStream.putNextEntry(mappedFile.entry);
+      val size = archiveFile.entry.getSize();
+      putNextEntry(mappedFile.entry, size);
 
       try(val entryInputStream = archive.getInputStream(archiveFile.entry)) {
-        copyLarge(entryInputStream, jarOutputStream);
+        if (classIndex != null && ClassIndex.isIndexed(entry.getName()))
+        {
+          val classBytes = entryInputStream.readAllBytes();
+
+          classIndex.add(archiveFile.getPathString(), classBytes);
+          jarOutputStream.write(classBytes);
+        }
+        else
+          copyLarge(entryInputStream, jarOutputStream);
+      }
+
+      jarOutputStream.closeEntry();
+
+      event.complete(archiveFile.getPathString(), entry.getName(), EntryEvent.COPY, size, size, 0);
+    }
+
+
+    private void copyManifestWithoutMultiRelease(@NotNull RelativeArchivePath manifestFile,
+                                                 @NotNull ArchiveEntrySource archive) throws IOException
+    {
+      Manifest manifest;
+
+      try(val manifestInputStream = archive.getInputStream(manifestFile.entry)) {
+        manifest = new Manifest(manifestInputStream);
       }
 
+      manifest.getMainAttributes().remove(MULTI_RELEASE);
+
+      val entry = new ZipEntry(MANIFEST_PATH);
+      entry.setTime(getLastModified(manifestFile.entry));
+      if (reproducible)
+        entry.setUnixMode(FILE_FLAG | CONSTANT_FILE_PERMISSIONS);
+
+      val mappedFile = new RelativeArchivePath(entry);
+      addParentDirectories(mappedFile);
+
+      putNextEntry(entry, -1);
+      manifest.write(jarOutputStream);
       jarOutputStream.closeEntry();
     }
 
 
-    private void transform(@NotNull ArchiveFileTreeElement element, @NotNull ZipFile archive) throws IOException
+    /**
+     * Begins writing a file entry, using the compression selected for the entry path and size.
+     *
+     * @param entry  file entry, not {@code null}
+     * @param size   uncompressed size of the entry or {@code -1} if unknown
+     */
+    private void putNextEntry(@NotNull ZipEntry entry, long size) throws IOException
+    {
+      if (zipEntryCompression == ZipEntryCompression.DEFLATED)
+      {
+        val level = compressionSelector.selectLevel(entry.getName(), size);
+
+        if (level == STORE)
+          entry.setMethod(STORED);
+        else
+        {
+          entry.setMethod(DEFLATED);
+          jarOutputStream.setLevel(level);
+        }
+      }
+
+      jarOutputStream.putNextEntry(entry);
+    }
+
+
+    private void transform(@NotNull ArchiveFileTreeElement element, @NotNull ArchiveEntrySource archive)
+        throws IOException
     {
       try(val archiveEntryInputStream = archive.getInputStream(element.getRelativePath().entry)) {
         transformAndClose(element, archiveEntryInputStream);
@@ -355,10 +1067,13 @@ class RepackageCopyAction implements CopyAction
     {
       val mappedPath = remapper.map(element.getRelativePath().getPathString());
 
+      // the transformed input contributes to the time of the generated entries
+      getLastModified(element);
+
       transformers
           .stream()
           .filter(t -> t.canTransformResource(element))
-          .forEach(t -> t.transform(new TransformerContext(mappedPath, inputStream, relocators)));
+          .forEach(t -> t.transform(new TransformerContext(mappedPath, inputStream, relocators, memoryBudget)));
     }
 
 
@@ -369,6 +1084,59 @@ class RepackageCopyAction implements CopyAction
     }
 
 
+    private long getLastModified(@NotNull FileTreeElement element) {
+      return getLastModified(element.getLastModified());
+    }
+
+
+    private long getLastModified(@NotNull ZipEntry zipEntry) {
+      return getLastModified(zipEntry.getTime());
+    }
+
+
+    /**
+     * Returns the time for an entry copied from an input with the given modification time. The newest input
+     * time is tracked, as it is used for generated entries.
+     *
+     * @param lastModified  modification time of the input or {@code -1} if unknown
+     *
+     * @return  entry time
+     */
+    private long getLastModified(long lastModified)
+    {
+      if (reproducible)
+        return CONSTANT_TIME_FOR_ZIP_ENTRIES;
+
+      if (lastModified > newestTime)
+        newestTime = lastModified;
+
+      return lastModified;
+    }
+
+
+    /**
+     * Returns the time for entries that are not copied from an input, like parent directories and entries
+     * generated by transformers. Using the newest input time instead of the current time keeps the jar
+     * content unchanged if the input has not changed.
+     *
+     * @return  generated entry time
+     */
+    @Contract(pure = true)
+    long getGeneratedEntryTime() {
+      return reproducible || newestTime == -1 ? CONSTANT_TIME_FOR_ZIP_ENTRIES : newestTime;
+    }
+
+
+    @Contract(pure = true)
+    private int getPermissions(@NotNull FileTreeElement element)
+    {
+      if (reproducible)
+        return element.isDirectory() ? CONSTANT_DIR_PERMISSIONS : CONSTANT_FILE_PERMISSIONS;
+
+      return element.getPermissions().toUnixNumeric();
+    }
+
+
     @Contract(pure = true)
     private @NotNull String safeMap(@NotNull String name)
     {
@@ -380,14 +1148,54 @@ class RepackageCopyAction implements CopyAction
 
 
 
+  /**
+   * Remapper delegate counting the number of names changed by the relocators.
+   */
+  @RequiredArgsConstructor
+  private static final class HitCountingRemapper extends Remapper
+  {
+    private final @NotNull Remapper remapper;
+    private int hits;
+
+
+    @Override
+    public Object mapValue(Object value)
+    {
+      val mappedValue = remapper.mapValue(value);
+      if (mappedValue != value && !mappedValue.equals(value))
+        hits++;
+
+      return mappedValue;
+    }
+
+
+    @Override
+    public String map(String internalName)
+    {
+      val mappedName = remapper.map(internalName);
+      if (mappedName != null && !mappedName.equals(internalName))
+        hits++;
+
+      return mappedName;
+    }
+  }
+
+
+
+
   public static class RelativeArchivePath extends RelativePath
   {
     private final ZipEntry entry;
 
 
-    private RelativeArchivePath(@NotNull ZipEntry entry)
+    private RelativeArchivePath(@NotNull ZipEntry entry) {
+      this(entry, entry.getName());
+    }
+
+
+    private RelativeArchivePath(@NotNull ZipEntry entry, @NotNull String path)
     {
-      super(!entry.isDirectory(), entry.getName().split("/"));
+      super(!entry.isDirectory(), path.split("/"));
       this.entry = entry;
     }
 
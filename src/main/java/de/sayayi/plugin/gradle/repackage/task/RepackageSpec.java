@@ -17,6 +17,7 @@ package de.sayayi.plugin.gradle.repackage.task;
 
 import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
 import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
 import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
 import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
 import groovy.lang.Closure;
@@ -25,7 +26,9 @@ import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.TaskOutputs;
 import org.gradle.api.tasks.bundling.ZipEntryCompression;
 import org.gradle.api.tasks.util.PatternFilterable;
@@ -44,6 +47,113 @@ public interface RepackageSpec
   @NotNull Property<ZipEntryCompression> getEntryCompression();
 
 
+  /**
+   * Returns whether the archive is created reproducibly. If enabled, all entries get a constant timestamp and
+   * constant permissions, and the entries of each input archive are added in name order. File timestamps and
+   * permissions are not read from the file system in this mode.
+   *
+   * @return  reproducible property, defaults to {@code false}
+   */
+  @Contract(pure = true)
+  @NotNull Property<Boolean> getReproducible();
+
+
+  /**
+   * Returns whether directory entries are added to the archive. Class loaders and most tools don't require
+   * directory entries, so omitting them results in a smaller central directory.
+   *
+   * @return  directory entries property, defaults to {@code true}
+   */
+  @Contract(pure = true)
+  @NotNull Property<Boolean> getDirectoryEntries();
+
+
+  /**
+   * Returns the class loading trace used to order the archive entries. Classes are added to the archive in the
+   * order they appear in the trace, followed by all other entries. This improves locality when the classes are
+   * loaded at startup.
+   * <p>
+   * Both the output of {@code -Xlog:class+load} and class lists written by {@code -XX:DumpLoadedClassList} are
+   * supported. Class names in the trace may be either original or relocated class names.
+   *
+   * @return  class loading trace file property
+   */
+  @Contract(pure = true)
+  @NotNull RegularFileProperty getClassLoadOrder();
+
+
+  /**
+   * Returns the Java release the repackaged archive is targeted at. If set, multi-release jars are flattened:
+   * for each entry the variant for the highest release not exceeding the target release is stored in the base
+   * location, all other variants are dropped and the {@code Multi-Release} attribute is removed from the
+   * manifest. Versioned module descriptors ({@code module-info.class}) are dropped as well.
+   *
+   * @return  target release property
+   */
+  @Contract(pure = true)
+  @NotNull Property<Integer> getTargetRelease();
+
+
+  /**
+   * Returns the policy for relocating string constants in class files.
+   *
+   * @return  string relocation property, defaults to {@link StringRelocation#CLASSES_AND_PATHS}
+   */
+  @Contract(pure = true)
+  @NotNull Property<StringRelocation> getStringRelocation();
+
+
+  /**
+   * Returns the number of heap bytes which may be used for buffering the central directory and transformer
+   * state. If the budget is exhausted, the data is moved to temporary files. This keeps the heap usage flat for
+   * very large archives.
+   *
+   * @return  memory budget property, if not set all data is kept in memory
+   */
+  @Contract(pure = true)
+  @NotNull Property<Long> getMemoryBudget();
+
+
+  /**
+   * Returns whether only names of classes, resources and packages present in the input files are relocated.
+   * If enabled, references to classes which are not part of the inputs (e.g. classes of optional dependencies)
+   * are left alone, even if a relocator matches them. In verbose mode, these names are reported.
+   *
+   * @return  closed world property, defaults to {@code false}
+   */
+  @Contract(pure = true)
+  @NotNull Property<Boolean> getClosedWorld();
+
+
+  /**
+   * Returns the content to be stripped from all classes. Content can also be stripped for the classes of a
+   * single relocator only, using {@link DefaultRelocator#strip(StripOption...)}.
+   *
+   * @return  strip options property
+   */
+  @Contract(pure = true)
+  @NotNull SetProperty<StripOption> getStrip();
+
+
+  /**
+   * Returns the class name patterns (e.g. {@code org.jetbrains.annotations.*}) of invisible annotations to be
+   * stripped from all classes. Patterns are matched against the original annotation class names.
+   *
+   * @return  annotation class name patterns property
+   */
+  @Contract(pure = true)
+  @NotNull SetProperty<String> getStripAnnotations();
+
+
+  /**
+   * Returns the per entry compression policy, which applies if the entry compression is {@code DEFLATED}.
+   *
+   * @return  compression policy
+   */
+  @Contract(pure = true)
+  @NotNull CompressionPolicy getCompression();
+
+
   /**
    * Processes a FileCollection, which may be simple, a {@link Configuration},
    * or derived from a {@link TaskOutputs}.
@@ -117,6 +227,84 @@ public interface RepackageSpec
   @NotNull RepackageSpec exclude(@NotNull String classnamePattern);
 
 
+  /**
+   * Configures the generation of a class data sharing (AppCDS) class list and shared archive for the
+   * repackaged jar.
+   *
+   * @param configure  class data sharing configuration action
+   *
+   * @see ClassDataSharing
+   */
+  @NotNull RepackageSpec classDataSharing(@NotNull Action<ClassDataSharing> configure);
+
+
+  /**
+   * Configures the per entry compression policy.
+   *
+   * @param configure  compression policy configuration action
+   *
+   * @see CompressionPolicy
+   */
+  @NotNull RepackageSpec compression(@NotNull Action<CompressionPolicy> configure);
+
+
+  /**
+   * Adds a variant of the repackaged archive. A variant is an additional archive with its own relocators,
+   * transformers, class filter and destination name, which is created in the same pass over the input files as
+   * the repackaged archive. The destination name defaults to the destination name of the repackaged archive,
+   * suffixed with the variant name.
+   *
+   * @param name       variant name, not {@code null}
+   * @param configure  variant configuration action
+   *
+   * @see RepackageVariant
+   */
+  @NotNull RepackageSpec variant(@NotNull String name, @NotNull Action<RepackageVariant> configure);
+
+
+  /**
+   * Returns the kind of output created. In {@link OutputMode#DIRECTORY DIRECTORY} mode, the relocated classes and
+   * resources are written to a directory tree next to the archive location, named after the archive without
+   * its extension. Files which are no longer part of the output are deleted from the directory and unchanged
+   * files are not rewritten.
+   *
+   * @return  output mode property, defaults to {@link OutputMode#JAR}
+   */
+  @Contract(pure = true)
+  @NotNull Property<OutputMode> getOutputMode();
+
+
+  /**
+   * Returns the implementation used to write the archive. All implementations produce equivalent archives, but
+   * differ in the number of system calls issued while writing, which may matter on some file systems.
+   *
+   * @return  archive writer property, defaults to {@link ArchiveWriterType#CHANNEL}
+   */
+  @Contract(pure = true)
+  @NotNull Property<ArchiveWriterType> getArchiveWriter();
+
+
+  /**
+   * Returns whether a Jandex index ({@code META-INF/jandex.idx}) of the repackaged classes is added to the
+   * archive. The index is built while the classes are written and replaces any index contained in the input
+   * files, as those refer to the original class names.
+   *
+   * @return  jandex index property, defaults to {@code false}
+   */
+  @Contract(pure = true)
+  @NotNull Property<Boolean> getJandexIndex();
+
+
+  /**
+   * Returns the strategy for entries contained in more than one input archive. Resources merged by a
+   * transformer are not affected.
+   *
+   * @return  duplicate strategy property, defaults to {@link DuplicateStrategy#FIRST_WINS}
+   */
+  @Contract(pure = true)
+  @NotNull Property<DuplicateStrategy> getDuplicateStrategy();
+
+
   /**
    * Returns the file name of the generated archive.
    *
@@ -18,9 +18,10 @@ package de.sayayi.plugin.gradle.repackage.task;
 import de.sayayi.plugin.gradle.repackage.RepackageExtension;
 import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
 import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
-import de.sayayi.plugin.gradle.repackage.transformer.FilterResourceTransformer;
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
 import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
 import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
 import groovy.lang.Closure;
 import lombok.val;
 import org.gradle.api.Action;
@@ -28,30 +29,42 @@ import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.ConventionTask;
 import org.gradle.api.internal.DocumentationRegistry;
+import org.gradle.api.internal.file.copy.CopyAction;
 import org.gradle.api.internal.file.copy.CopyActionExecuter;
 import org.gradle.api.internal.file.copy.DefaultCopySpec;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.plugins.JavaPluginExtension;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.*;
 import org.gradle.api.tasks.bundling.ZipEntryCompression;
 import org.gradle.api.tasks.util.PatternFilterable;
-import org.gradle.api.tasks.util.PatternSet;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 import org.gradle.internal.reflect.Instantiator;
+import org.gradle.jvm.toolchain.JavaToolchainService;
+import org.gradle.process.ExecOperations;
+import org.gradle.process.JavaExecSpec;
+import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
-import static de.sayayi.plugin.gradle.repackage.util.ClassUtil.isClassnamePattern;
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.CLASSES_AND_PATHS;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
 import static org.gradle.api.file.DuplicatesStrategy.EXCLUDE;
+import static org.gradle.api.tasks.PathSensitivity.NONE;
 import static org.gradle.api.tasks.bundling.ZipEntryCompression.DEFLATED;
 
 
@@ -63,12 +76,8 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
 {
   private final DirectoryProperty destinationDirectory;
   private final ConfigurableFileCollection sourceFiles;
-  private final List<Transformer> transformers = new ArrayList<>();
-  private final List<Relocator> relocators = new ArrayList<>();
-  private final PatternSet classFilterPatternSet = new PatternSet();
-
-  private final FilterResourceTransformer filterResourceTransformer;
-  private final ServiceFileTransformer serviceFileTransformer;
+  private final RepackageVariant mainVariant;
+  private final List<RepackageVariant> variants = new ArrayList<>();
 
 
   public RepackageTask()
@@ -79,11 +88,25 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
     sourceFiles = project.files();
     destinationDirectory = repackageExtension.getDestinationDir();
 
-    transformers.add(filterResourceTransformer = new FilterResourceTransformer());
-    transformers.add(serviceFileTransformer = new ServiceFileTransformer());
+    mainVariant = project.getObjects().newInstance(RepackageVariant.class, "main");
 
     getVerbose().convention(repackageExtension.getVerbose());
     getEntryCompression().convention(DEFLATED);
+    getReproducible().convention(false);
+    getDirectoryEntries().convention(true);
+    getStringRelocation().convention(CLASSES_AND_PATHS);
+    getClosedWorld().convention(false);
+    getOutputMode().convention(OutputMode.JAR);
+    getArchiveWriter().convention(ArchiveWriterType.CHANNEL);
+    getJandexIndex().convention(false);
+    getDuplicateStrategy().convention(DuplicateStrategy.FIRST_WINS);
+
+    val classDataSharing = getClassDataSharing();
+    val javaExtension = project.getExtensions().findByType(JavaPluginExtension.class);
+
+    classDataSharing.getSharedArchive().convention(false);
+    if (javaExtension != null)
+      classDataSharing.getJavaLauncher().convention(getJavaToolchainService().launcherFor(javaExtension.getToolchain()));
   }
 
 
@@ -111,9 +134,21 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   }
 
 
+  @Inject
+  protected ExecOperations getExecOperations() {
+    throw new UnsupportedOperationException();
+  }
+
+
+  @Inject
+  protected JavaToolchainService getJavaToolchainService() {
+    throw new UnsupportedOperationException();
+  }
+
+
   @Input
   public int getClassFilterHash() {
-    return classFilterPatternSet.hashCode();
+    return mainVariant.getClassFilterHash();
   }
 
 
@@ -124,7 +159,78 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
 
   @Override
   @Input
-  public abstract @NotNull Property<String> getDestinationName();
+  public abstract @NotNull Property<Boolean> getReproducible();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<Boolean> getDirectoryEntries();
+
+
+  @Override
+  @InputFile
+  @Optional
+  @PathSensitive(NONE)
+  public abstract @NotNull RegularFileProperty getClassLoadOrder();
+
+
+  @Override
+  @Input
+  @Optional
+  public abstract @NotNull Property<Integer> getTargetRelease();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<StringRelocation> getStringRelocation();
+
+
+  @Override
+  @Internal
+  @Optional
+  public abstract @NotNull Property<Long> getMemoryBudget();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<Boolean> getClosedWorld();
+
+
+  @Override
+  @Input
+  public abstract @NotNull SetProperty<StripOption> getStrip();
+
+
+  @Override
+  @Input
+  public abstract @NotNull SetProperty<String> getStripAnnotations();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<OutputMode> getOutputMode();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<ArchiveWriterType> getArchiveWriter();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<Boolean> getJandexIndex();
+
+
+  @Override
+  @Input
+  public abstract @NotNull Property<DuplicateStrategy> getDuplicateStrategy();
+
+
+  @Override
+  @Input
+  public @NotNull Property<String> getDestinationName() {
+    return mainVariant.getDestinationName();
+  }
 
 
   @Override
@@ -150,6 +256,150 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   }
 
 
+  /**
+   * The path of the directory tree, which is created if the output mode is {@link OutputMode#DIRECTORY DIRECTORY}
+   * or {@link OutputMode#BOTH BOTH}. The path is the archive path without the {@code .jar} extension.
+   *
+   * @return  directory provider
+   */
+  @OutputDirectory
+  @Optional
+  public @NotNull Provider<Directory> getDirectoryPath()
+  {
+    return destinationDirectory.dir(getDestinationName().zip(getOutputMode(), (destinationName, outputMode) ->
+        outputMode == OutputMode.JAR ? null : getBaseName(destinationName)));
+  }
+
+
+  /**
+   * The output to be put on a class path: the directory tree if the output mode is
+   * {@link OutputMode#DIRECTORY DIRECTORY}, the archive otherwise.
+   *
+   * @return  class path output file
+   */
+  @Internal
+  public @NotNull File getClasspathOutput()
+  {
+    return getOutputMode().get() == OutputMode.DIRECTORY
+        ? getDirectoryPath().get().getAsFile()
+        : getDestinationPath().getAsFile();
+  }
+
+
+  /**
+   * The paths of the archives created for the variants.
+   *
+   * @return  list of variant archive files
+   */
+  @OutputFiles
+  public @NotNull List<RegularFile> getVariantPaths()
+  {
+    return variants
+        .stream()
+        .map(variant -> destinationDirectory.file(variant.getDestinationName()).get())
+        .collect(toList());
+  }
+
+
+  /**
+   * The paths of the directory trees created for the variants, if the output mode is
+   * {@link OutputMode#DIRECTORY DIRECTORY} or {@link OutputMode#BOTH BOTH}.
+   *
+   * @return  list of variant directories
+   */
+  @OutputDirectories
+  public @NotNull List<Directory> getVariantDirectoryPaths()
+  {
+    if (getOutputMode().get() == OutputMode.JAR)
+      return List.of();
+
+    return variants
+        .stream()
+        .map(variant -> destinationDirectory.dir(variant.getDestinationName().map(RepackageTask::getBaseName)).get())
+        .collect(toList());
+  }
+
+
+  @Nested
+  public @NotNull List<RepackageVariant> getVariants() {
+    return variants;
+  }
+
+
+  @Override
+  public @NotNull RepackageSpec variant(@NotNull String name, @NotNull Action<RepackageVariant> configure)
+  {
+    val variant = getObjectFactory().newInstance(RepackageVariant.class, name);
+
+    variant.getDestinationName().convention(getDestinationName()
+        .map(destinationName -> getVariantFileName(destinationName, name)));
+    configure.execute(variant);
+
+    variants.add(variant);
+    return this;
+  }
+
+
+  @Nested
+  public abstract @NotNull ClassDataSharing getClassDataSharing();
+
+
+  @Override
+  @Nested
+  public abstract @NotNull CompressionPolicy getCompression();
+
+
+  /**
+   * The path of the class data sharing class list, which is generated next to the archive if a training main
+   * class has been configured.
+   *
+   * @return  class list file provider
+   */
+  @OutputFile
+  @Optional
+  public @NotNull Provider<RegularFile> getClassListPath() {
+    return destinationDirectory.file(getClassDataSharingFileName(".classlist"));
+  }
+
+
+  /**
+   * The path of the class data sharing archive, which is generated next to the archive if a training main
+   * class has been configured and shared archive generation is enabled.
+   *
+   * @return  shared archive file provider
+   */
+  @OutputFile
+  @Optional
+  public @NotNull Provider<RegularFile> getSharedArchivePath()
+  {
+    return destinationDirectory.file(getClassDataSharing().getSharedArchive()
+        .flatMap(sharedArchive -> getClassDataSharingFileName(".jsa")
+            .map(fileName -> sharedArchive ? fileName : null)));
+  }
+
+
+  private @NotNull Provider<String> getClassDataSharingFileName(@NotNull String extension)
+  {
+    return getDestinationName().zip(getClassDataSharing().getMainClass(), (destinationName, mainClass) ->
+        getBaseName(destinationName) + extension);
+  }
+
+
+  @Contract(pure = true)
+  private static @NotNull String getVariantFileName(@NotNull String destinationName, @NotNull String variantName) {
+    return getBaseName(destinationName) + '-' + variantName + ".jar";
+  }
+
+
+  @Contract(pure = true)
+  private static @NotNull String getBaseName(@NotNull String destinationName)
+  {
+    return destinationName.endsWith(".jar")
+        ? destinationName.substring(0, destinationName.length() - 4)
+        : destinationName;
+  }
+
+
   /**
    * Processes a FileCollection, which may be simple, a {@link Configuration},
    * or derived from a {@link TaskOutputs}.
@@ -158,7 +408,8 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
    */
   @Override
   public void from(@NotNull FileCollection files) {
-    sourceFiles.from(getProject().files(files.getFiles()));
+    // keep the collection lazy, so configurations are resolved when the task executes and not during configuration
+    sourceFiles.from(files);
   }
 
 
@@ -203,7 +454,7 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   public @NotNull RepackageSpec relocate(@NotNull String pattern, String destination,
                                          Action<DefaultRelocator> configure)
   {
-    addRelocator(new DefaultRelocator(pattern, destination), configure);
+    mainVariant.relocate(pattern, destination, configure);
     return this;
   }
 
@@ -211,23 +462,14 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   @Override
   public @NotNull RepackageSpec relocate(@NotNull Relocator relocator)
   {
-    addRelocator(relocator, null);
+    mainVariant.relocate(relocator);
     return this;
   }
 
 
-  private <R extends Relocator> void addRelocator(@NotNull R relocator, Action<R> configure)
-  {
-    if (configure != null)
-      configure.execute(relocator);
-
-    relocators.add(relocator);
-  }
-
-
   @Nested
   public @NotNull List<Relocator> getRelocators() {
-    return relocators;
+    return mainVariant.getRelocators();
   }
 
 
@@ -236,7 +478,7 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
                                                                   Action<T> configure)
       throws ReflectiveOperationException
   {
-    addTransform(transformerClass.getDeclaredConstructor().newInstance(), configure);
+    mainVariant.transform(transformerClass, configure);
     return this;
   }
 
@@ -244,30 +486,21 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   @Override
   public @NotNull RepackageSpec transform(@NotNull Transformer transformer)
   {
-    addTransform(transformer, null);
+    mainVariant.transform(transformer);
     return this;
   }
 
 
-  private <T extends Transformer> void addTransform(@NotNull T transformer, Action<T> configure)
-  {
-    if (configure != null)
-      configure.execute(transformer);
-
-    transformers.add(transformer);
-  }
-
-
   @Nested
   public @NotNull List<Transformer> getTransformers() {
-    return transformers;
+    return mainVariant.getTransformers();
   }
 
 
   @Override
   public @NotNull RepackageSpec filterServices(@NotNull Action<ServiceFileTransformer> configure)
   {
-    configure.execute(serviceFileTransformer);
+    mainVariant.filterServices(configure);
     return this;
   }
 
@@ -275,7 +508,7 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   @Override
   public @NotNull RepackageSpec filterResources(@NotNull Action<PatternFilterable> configure)
   {
-    configure.execute(filterResourceTransformer.getFilter());
+    mainVariant.filterResources(configure);
     return this;
   }
   
@@ -283,11 +516,23 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
   @Override
   public @NotNull RepackageSpec exclude(@NotNull String classnamePattern)
   {
-    if (!isClassnamePattern(classnamePattern))
-      getLogger().error("exclusion classname pattern '{}' is not valid", classnamePattern);
-    else
-      classFilterPatternSet.exclude(classnamePattern.replace('.', '/'));
+    mainVariant.exclude(classnamePattern);
+    return this;
+  }
 
+
+  @Override
+  public @NotNull RepackageSpec classDataSharing(@NotNull Action<ClassDataSharing> configure)
+  {
+    configure.execute(getClassDataSharing());
+    return this;
+  }
+
+
+  @Override
+  public @NotNull RepackageSpec compression(@NotNull Action<CompressionPolicy> configure)
+  {
+    configure.execute(getCompression());
     return this;
   }
 
@@ -313,11 +558,123 @@ public abstract class RepackageTask extends ConventionTask implements RepackageS
 
     val copyActionExecuter = new CopyActionExecuter(getInstantiator(), objectFactory, getFileSystem(),
         true, getDocumentationRegistry());
-    val copyAction = new RepackageCopyAction(getVerbose().get(), repackagedJarFile, getEntryCompression().get(),
-        transformers, relocators, classFilterPatternSet);
+    val memoryBudget = getMemoryBudget()
+        .map(bytes -> new MemoryBudget(bytes, getTemporaryDir()))
+        .getOrElse(MemoryBudget.UNLIMITED);
+    val copyAction = createCopyAction(mainVariant, repackagedJarFile, memoryBudget);
+    CopyAction rootCopyAction = copyAction;
+
+    if (!variants.isEmpty())
+    {
+      val copyActions = new ArrayList<RepackageCopyAction>();
+      copyActions.add(copyAction);
+
+      for(val variant: variants)
+      {
+        val variantJarFile = destinationDirectory.file(variant.getDestinationName()).get().getAsFile();
+
+        if (getVerbose().get())
+          getLogger().info("Repackage variant {} to: {}", variant.getName(), variantJarFile);
+
+        copyActions.add(createCopyAction(variant, variantJarFile, memoryBudget));
+      }
+
+      rootCopyAction = new SharedReadCopyAction(copyActions, getReproducible().get());
+    }
 
     setDidWork(copyActionExecuter
-        .execute(rootSpec, copyAction)
+        .execute(rootSpec, rootCopyAction)
         .getDidWork());
+
+    if (getClassDataSharing().getMainClass().isPresent())
+    {
+      if (getOutputMode().get() == OutputMode.DIRECTORY)
+        getLogger().warn("Class data sharing requires a jar, skipping class list generation");
+      else
+        createClassDataSharingFiles(repackagedJarFile);
+    }
+  }
+
+
+  private @NotNull RepackageCopyAction createCopyAction(@NotNull RepackageVariant variant, @NotNull File jarFile,
+                                                       @NotNull MemoryBudget memoryBudget)
+  {
+    val outputMode = getOutputMode().get();
+
+    return RepackageCopyAction.builder()
+        .verbose(getVerbose().get())
+        .jarFile(jarFile)
+        .zipEntryCompression(getEntryCompression().get())
+        .transformers(variant.getTransformers())
+        .relocators(variant.getRelocators())
+        .patternSet(variant.getClassFilter())
+        .reproducible(getReproducible().get())
+        .directoryEntries(getDirectoryEntries().get())
+        .classLoadOrderFile(getClassLoadOrder().map(RegularFile::getAsFile).getOrNull())
+        .targetRelease(getTargetRelease().getOrNull())
+        .stringRelocation(getStringRelocation().get())
+        .compressionSelector(new CompressionSelector(getCompression()))
+        .memoryBudget(memoryBudget)
+        .strip(getStrip().get())
+        .stripAnnotations(getStripAnnotations().get())
+        .sourceFiles(sourceFiles.getFiles())
+        .closedWorld(getClosedWorld().get())
+        .outputDirectory(outputMode == OutputMode.JAR
+            ? null
+            : new File(jarFile.getParentFile(), getBaseName(jarFile.getName())))
+        .directoryOnly(outputMode == OutputMode.DIRECTORY)
+        .archiveWriterType(getArchiveWriter().get())
+        .jandexIndex(getJandexIndex().get())
+        .duplicateStrategy(getDuplicateStrategy().get())
+        .build();
+  }
+
+
+  private void createClassDataSharingFiles(@NotNull File repackagedJarFile)
+  {
+    val classDataSharing = getClassDataSharing();
+    val classListFile = getClassListPath().get().getAsFile();
+    val execOperations = getExecOperations();
+
+    if (getVerbose().get())
+      getLogger().info("Training run for class list: {}", classListFile);
+
+    execOperations.javaexec(spec -> {
+      configureClassDataSharingExec(spec, repackagedJarFile);
+
+      spec.jvmArgs("-Xshare:off", "-XX:DumpLoadedClassList=" + classListFile.getAbsolutePath());
+      spec.args(classDataSharing.getArgs().get());
+    });
+
+    if (classDataSharing.getSharedArchive().get())
+    {
+      val sharedArchiveFile = getSharedArchivePath().get().getAsFile();
+
+      if (getVerbose().get())
+        getLogger().info("Dump shared archive: {}", sharedArchiveFile);
+
+      // the jvm exits after dumping the archive, so the main class is not executed
+      execOperations.javaexec(spec -> {
+        configureClassDataSharingExec(spec, repackagedJarFile);
+
+        spec.jvmArgs("-Xshare:dump",
+            "-XX:SharedClassListFile=" + classListFile.getAbsolutePath(),
+            "-XX:SharedArchiveFile=" + sharedArchiveFile.getAbsolutePath());
+      });
+    }
+  }
+
+
+  private void configureClassDataSharingExec(@NotNull JavaExecSpec spec, @NotNull File repackagedJarFile)
+  {
+    val classDataSharing = getClassDataSharing();
+    val javaLauncher = classDataSharing.getJavaLauncher();
+
+    if (javaLauncher.isPresent())
+      spec.setExecutable(javaLauncher.get().getExecutablePath().getAsFile());
+
+    spec.getMainClass().set(classDataSharing.getMainClass());
+    spec.classpath(repackagedJarFile, classDataSharing.getClasspath());
+    spec.jvmArgs(classDataSharing.getJvmArgs().get());
   }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.transformer.FilterResourceTransformer;
+import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
+import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
+import lombok.extern.slf4j.Slf4j;
+import org.gradle.api.Action;
+import org.gradle.api.Named;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.util.PatternFilterable;
+import org.gradle.api.tasks.util.PatternSet;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.sayayi.plugin.gradle.repackage.util.ClassUtil.isClassnamePattern;
+
+
+/**
+ * Output variant of a repackage task. Each variant has its own relocators, transformers, class filter and
+ * destination name, while all other settings are taken from the task.
+ * <p>
+ * All variants of a task are created in a single pass over the input files, so reading and inflating the
+ * input archives is shared by all variants.
+ *
+ * @author Jeroen Gremmen
+ */
+@Slf4j
+@SuppressWarnings("unused")
+public abstract class RepackageVariant implements Named
+{
+  private final String name;
+  private final List<Transformer> transformers = new ArrayList<>();
+  private final List<Relocator> relocators = new ArrayList<>();
+  private final PatternSet classFilterPatternSet = new PatternSet();
+
+  private final FilterResourceTransformer filterResourceTransformer;
+  private final ServiceFileTransformer serviceFileTransformer;
+
+
+  @Inject
+  public RepackageVariant(@NotNull String name)
+  {
+    this.name = name;
+
+    transformers.add(filterResourceTransformer = new FilterResourceTransformer());
+    transformers.add(serviceFileTransformer = new ServiceFileTransformer());
+  }
+
+
+  @Override
+  @Input
+  public @NotNull String getName() {
+    return name;
+  }
+
+
+  @Input
+  public int getClassFilterHash() {
+    return classFilterPatternSet.hashCode();
+  }
+
+
+  @Contract(pure = true)
+  @NotNull PatternSet getClassFilter() {
+    return classFilterPatternSet;
+  }
+
+
+  /**
+   * Returns the file name of the generated archive.
+   *
+   * @return  destination file name property
+   */
+  @Input
+  public abstract @NotNull Property<String> getDestinationName();
+
+
+  public @NotNull RepackageVariant relocate(@NotNull String pattern, String destination) {
+    return relocate(pattern, destination, null);
+  }
+
+
+  public @NotNull RepackageVariant relocate(@NotNull String pattern, String destination,
+                                            Action<DefaultRelocator> configure)
+  {
+    addRelocator(DefaultRelocator.create(pattern, destination), configure);
+    return this;
+  }
+
+
+  public @NotNull RepackageVariant relocate(@NotNull Relocator relocator)
+  {
+    addRelocator(relocator, null);
+    return this;
+  }
+
+
+  private <R extends Relocator> void addRelocator(@NotNull R relocator, Action<R> configure)
+  {
+    if (configure != null)
+      configure.execute(relocator);
+
+    relocators.add(relocator);
+  }
+
+
+  @Nested
+  public @NotNull List<Relocator> getRelocators() {
+    return relocators;
+  }
+
+
+  public @NotNull RepackageVariant transform(@NotNull Class<? extends Transformer> transformerClass)
+      throws ReflectiveOperationException {
+    return transform(transformerClass, null);
+  }
+
+
+  public @NotNull <T extends Transformer> RepackageVariant transform(@NotNull Class<T> transformerClass,
+                                                                     Action<T> configure)
+      throws ReflectiveOperationException
+  {
+    addTransform(transformerClass.getDeclaredConstructor().newInstance(), configure);
+    return this;
+  }
+
+
+  public @NotNull RepackageVariant transform(@NotNull Transformer transformer)
+  {
+    addTransform(transformer, null);
+    return this;
+  }
+
+
+  private <T extends Transformer> void addTransform(@NotNull T transformer, Action<T> configure)
+  {
+    if (configure != null)
+      configure.execute(transformer);
+
+    transformers.add(transformer);
+  }
+
+
+  @Nested
+  public @NotNull List<Transformer> getTransformers() {
+    return transformers;
+  }
+
+
+  public @NotNull RepackageVariant filterServices(@NotNull Action<ServiceFileTransformer> configure)
+  {
+    configure.execute(serviceFileTransformer);
+    return this;
+  }
+
+
+  public @NotNull RepackageVariant filterResources(@NotNull Action<PatternFilterable> configure)
+  {
+    configure.execute(filterResourceTransformer.getFilter());
+    return this;
+  }
+
+
+  public @NotNull RepackageVariant exclude(@NotNull String classnamePattern)
+  {
+    if (!isClassnamePattern(classnamePattern))
+      log.error("exclusion classname pattern '{}' is not valid", classnamePattern);
+    else
+      classFilterPatternSet.exclude(classnamePattern.replace('.', '/'));
+
+    return this;
+  }
+}
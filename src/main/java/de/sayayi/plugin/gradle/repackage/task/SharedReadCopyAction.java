@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.task.RepackageCopyAction.ArchiveEntrySource;
+import de.sayayi.plugin.gradle.repackage.task.RepackageCopyAction.ArchiveFileTreeElement;
+import de.sayayi.plugin.gradle.repackage.task.RepackageCopyAction.Output;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.apache.tools.ant.util.StreamUtils;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.gradle.api.GradleException;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
+import org.gradle.api.internal.file.copy.FileCopyDetailsInternal;
+import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.WorkResults;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Comparator.comparing;
+
+
+/**
+ * Copy action creating multiple repackaged jars (variants) from a single pass over the input files. Each input
+ * archive is opened once and each entry is read and inflated once; its content is shared by all variants
+ * processing the entry. The inventory of the input files, required for the relocation plan, the duplicate scan
+ * and the class load order, is read once as well and shared by all variants.
+ *
+ * @author Jeroen Gremmen
+ */
+@RequiredArgsConstructor
+final class SharedReadCopyAction implements CopyAction
+{
+  /** Entries larger than this size are not shared, but read by each variant separately. */
+  private static final int MAX_SHARED_ENTRY_SIZE = 8 * 1024 * 1024;
+
+  private final @NotNull List<RepackageCopyAction> copyActions;
+  private final boolean reproducible;
+
+
+  @Override
+  public @NotNull WorkResult execute(@NotNull CopyActionProcessingStream stream)
+  {
+    val outputs = new ArrayList<Output>(copyActions.size());
+
+    // all variants are created from the same source files
+    val inputInventory = copyActions.get(0).createInputInventory();
+
+    try {
+      try {
+        for(val copyAction: copyActions)
+          outputs.add(copyAction.openOutput(inputInventory));
+
+        stream.process(details -> processFile(details, outputs));
+
+        var didWork = false;
+        for(val output: outputs)
+          didWork |= output.commit();
+
+        return WorkResults.didWork(didWork);
+      } finally {
+        for(val output: outputs)
+          output.close();
+      }
+    } catch(Exception ex) {
+      throw new GradleException("Could not create repackaged jars", ex);
+    }
+  }
+
+
+  private void processFile(@NotNull FileCopyDetailsInternal details, @NotNull List<Output> outputs)
+  {
+    if (!details.isDirectory() && outputs.get(0).streamAction.isArchive(details))
+      processArchive(details.getFile(), outputs);
+    else
+      for(val output: outputs)
+        output.streamAction.processFile(details);
+  }
+
+
+  @SneakyThrows(IOException.class)
+  private void processArchive(@NotNull File archiveFile, @NotNull List<Output> outputs)
+  {
+    val event = new ArchiveEvent();
+    event.begin();
+
+    try(val archive = new ZipFile(archiveFile)) {
+      val entrySelectors = new ArrayList<Function<ZipEntry,ArchiveFileTreeElement>>();
+      for(val output: outputs)
+        entrySelectors.add(output.streamAction.createEntrySelector(archive));
+
+      val entrySource = new SharedEntrySource(archive);
+      var zipEntries = StreamUtils.enumerationAsStream(archive.getEntries());
+
+      // make the entry order independent of the way the input archive has been assembled
+      if (reproducible)
+        zipEntries = zipEntries.sorted(comparing(ZipEntry::getName));
+
+      zipEntries.forEach(zipEntry -> {
+        var visited = false;
+
+        for(int n = 0, size = outputs.size(); n < size; n++)
+        {
+          val archiveElement = entrySelectors.get(n).apply(zipEntry);
+          if (archiveElement != null)
+          {
+            outputs.get(n).streamAction.visitArchiveFile(archiveElement, entrySource);
+            visited = true;
+          }
+        }
+
+        if (visited)
+          event.entries++;
+      });
+    }
+
+    event.end();
+    if (event.shouldCommit())
+    {
+      event.archive = archiveFile.getPath();
+      event.archiveSize = archiveFile.length();
+      event.commit();
+    }
+  }
+
+
+
+
+  /**
+   * Entry source keeping the content of the most recently read entry, so that it is inflated only once.
+   */
+  @RequiredArgsConstructor
+  private static final class SharedEntrySource implements ArchiveEntrySource
+  {
+    private final @NotNull ZipFile archive;
+    private ZipEntry zipEntry;
+    private byte[] content;
+
+
+    @Override
+    public @NotNull InputStream getInputStream(@NotNull ZipEntry zipEntry) throws IOException
+    {
+      if (zipEntry != this.zipEntry)
+      {
+        val size = zipEntry.getSize();
+        if (size < 0 || size > MAX_SHARED_ENTRY_SIZE)
+          return archive.getInputStream(zipEntry);
+
+        try(val inputStream = archive.getInputStream(zipEntry)) {
+          content = inputStream.readAllBytes();
+        }
+
+        this.zipEntry = zipEntry;
+      }
+
+      return new ByteArrayInputStream(content);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+
+/**
+ * Policy for relocating string constants in class files.
+ *
+ * @author Jeroen Gremmen
+ */
+public enum StringRelocation
+{
+  /** String constants are never relocated. */
+  OFF,
+
+  /** Only string constants containing a class name (e.g. {@code "org.example.Foo"}) are relocated. */
+  CLASS_NAMES,
+
+  /**
+   * String constants containing a class name or a resource path (e.g. {@code "org/example/foo.xml"}) are
+   * relocated.
+   */
+  CLASSES_AND_PATHS
+}
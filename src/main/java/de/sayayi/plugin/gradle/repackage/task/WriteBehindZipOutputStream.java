@@ -0,0 +1,306 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.AllArgsConstructor;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static java.io.OutputStream.nullOutputStream;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+
+/**
+ * Zip output stream which collects each entry in memory and hands the finished entry over to a writer thread,
+ * which writes it to the archive using an {@link ArchiveWriter}. This way reading and remapping entries overlaps
+ * with compressing and writing entries.
+ * <p>
+ * The total number of bytes of entries waiting to be written is limited. If the limit is reached, closing an
+ * entry blocks until the writer thread has caught up. An entry exceeding the limit on its own is moved to a
+ * {@link SpillBuffer}, so it is kept in memory only as far as the memory budget allows. It is handed over once
+ * all other entries have been written and is streamed to the archive writer.
+ * <p>
+ * Only entry related methods and {@link #setLevel(int)} are supported. Finishing or closing this stream waits
+ * for all entries to be written, but leaves the archive writer open.
+ *
+ * @author Jeroen Gremmen
+ */
+final class WriteBehindZipOutputStream extends ZipOutputStream
+{
+  /** Accounted for each entry in addition to its data, so that a huge number of empty entries is limited too. */
+  private static final int ENTRY_OVERHEAD = 256;
+
+  private static final PendingEntry END_OF_ENTRIES = new PendingEntry(null, 0, null, 0, null, 0);
+
+  private final ArchiveWriter target;
+  private final int maxPendingBytes;
+  private final MemoryBudget memoryBudget;
+  private final Semaphore pendingBytes;
+  private final BlockingQueue<PendingEntry> pendingEntries = new LinkedBlockingQueue<>();
+  private final Thread writerThread;
+
+  private ZipEntry entry;
+  private EntryBuffer entryData;
+  private SpillBuffer spillBuffer;
+  private int level = DEFAULT_COMPRESSION;
+  private boolean drained;
+
+  private volatile Throwable writerFailure;
+
+
+  WriteBehindZipOutputStream(@NotNull ArchiveWriter target, int maxPendingBytes,
+                             @NotNull MemoryBudget memoryBudget)
+  {
+    super(nullOutputStream());
+
+    this.target = target;
+    this.maxPendingBytes = maxPendingBytes;
+    this.memoryBudget = memoryBudget;
+
+    pendingBytes = new Semaphore(maxPendingBytes);
+
+    writerThread = new Thread(this::writeEntries, "repackage-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+
+  @Override
+  public void setLevel(int level) {
+    this.level = level;
+  }
+
+
+  @Override
+  public void putNextEntry(@NotNull ZipEntry entry) throws IOException
+  {
+    if (this.entry != null)
+      closeEntry();
+
+    this.entry = entry;
+    entryData = new EntryBuffer();
+  }
+
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (entry == null)
+      throw new IllegalStateException("No current entry");
+
+    if (spillBuffer == null && entryData.size() < maxPendingBytes)
+      entryData.write(b);
+    else
+      write(new byte[] { (byte)b }, 0, 1);
+  }
+
+
+  @Override
+  public void write(@NotNull byte[] b, int offset, int length) throws IOException
+  {
+    if (entry == null)
+      throw new IllegalStateException("No current entry");
+
+    if (spillBuffer == null && (long)entryData.size() + length > maxPendingBytes)
+      spill();
+
+    if (spillBuffer != null)
+      spillBuffer.write(b, offset, length);
+    else
+      entryData.write(b, offset, length);
+  }
+
+
+  /**
+   * Moves the data of the current entry to a spill buffer, as the entry exceeds the pending bytes limit.
+   */
+  private void spill() throws IOException
+  {
+    spillBuffer = new SpillBuffer(memoryBudget);
+    entryData.writeTo(spillBuffer);
+    entryData = null;
+  }
+
+
+  @Override
+  public void closeEntry() throws IOException
+  {
+    if (entry == null)
+      return;
+
+    try {
+      checkWriterFailure();
+
+      val length = spillBuffer != null ? 0 : entryData.size();
+
+      // a spilled entry takes all permits, so it is written once all other entries have been written
+      val permits = spillBuffer != null
+          ? maxPendingBytes
+          : (int)Math.min((long)length + ENTRY_OVERHEAD, maxPendingBytes);
+
+      try {
+        pendingBytes.acquire(permits);
+      } catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for archive writer");
+      }
+
+      pendingEntries.add(new PendingEntry(entry, level, spillBuffer != null ? null : entryData.getBuffer(), length,
+          spillBuffer, permits));
+      spillBuffer = null;
+    } finally {
+      if (spillBuffer != null)
+      {
+        spillBuffer.close();
+        spillBuffer = null;
+      }
+
+      entry = null;
+      entryData = null;
+    }
+  }
+
+
+  @Override
+  public void flush() {
+  }
+
+
+  @Override
+  public void finish() throws IOException
+  {
+    if (!drained)
+    {
+      drained = true;
+
+      closeEntry();
+      pendingEntries.add(END_OF_ENTRIES);
+
+      try {
+        writerThread.join();
+      } catch(InterruptedException ex) {
+        writerThread.interrupt();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for archive writer");
+      }
+
+      checkWriterFailure();
+    }
+
+    super.finish();
+  }
+
+
+  @Override
+  public void close() throws IOException
+  {
+    try {
+      super.close();
+    } finally {
+      writerThread.interrupt();
+    }
+  }
+
+
+  private void checkWriterFailure() throws IOException
+  {
+    val failure = writerFailure;
+
+    if (failure instanceof IOException)
+      throw (IOException)failure;
+    else if (failure != null)
+      throw new IOException("Archive writer failed", failure);
+  }
+
+
+  private void writeEntries()
+  {
+    try {
+      for(PendingEntry pendingEntry; (pendingEntry = pendingEntries.take()) != END_OF_ENTRIES;)
+      {
+        try {
+          // after a failure, entries are still taken from the queue so the producer doesn't block forever
+          if (writerFailure == null)
+          {
+            if (pendingEntry.spillBuffer != null)
+              target.writeEntry(pendingEntry.entry, pendingEntry.level, pendingEntry.spillBuffer);
+            else
+              target.writeEntry(pendingEntry.entry, pendingEntry.level, pendingEntry.data, pendingEntry.length);
+          }
+        } catch(Throwable ex) {
+          writerFailure = ex;
+        } finally {
+          pendingEntry.close();
+          pendingBytes.release(pendingEntry.permits);
+        }
+      }
+    } catch(InterruptedException ex) {
+      if (writerFailure == null)
+        writerFailure = new InterruptedIOException("Archive writer interrupted");
+
+      // release the spill files of entries which will never be written
+      for(PendingEntry pendingEntry; (pendingEntry = pendingEntries.poll()) != null;)
+        pendingEntry.close();
+    }
+  }
+
+
+
+
+  @AllArgsConstructor
+  private static final class PendingEntry
+  {
+    private final ZipEntry entry;
+    private final int level;
+    private final byte[] data;
+    private final int length;
+    private final @Nullable SpillBuffer spillBuffer;
+    private final int permits;
+
+
+    private void close() {
+      closeQuietly(spillBuffer);
+    }
+  }
+
+
+
+
+  /** Byte array output stream giving access to its buffer, so the entry data doesn't need to be copied. */
+  private static final class EntryBuffer extends ByteArrayOutputStream
+  {
+    EntryBuffer() {
+      super(8192);
+    }
+
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipShort;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static java.io.OutputStream.nullOutputStream;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Arrays.copyOf;
+import static org.apache.tools.zip.ZipOutputStream.DEFLATED;
+import static org.apache.tools.zip.ZipOutputStream.STORED;
+import static org.apache.tools.zip.ZipUtil.toDosTime;
+
+
+/**
+ * Writes zip archives from complete entries, as handed over by {@link WriteBehindZipOutputStream}.
+ * <p>
+ * As the data of each entry is known before the entry is written, sizes and checksums are written to the local
+ * file header directly and the archive is written strictly sequentially. All output is collected in a large
+ * direct buffer, which is written to the file channel once it is full, so a single system call covers many
+ * small entries. The central directory records are collected in a {@link SpillBuffer}, so they don't occupy the
+ * heap for very large archives. Zip64 structures are only written if required, either for entries of 4 GB or
+ * more, or for archives exceeding the limits of the classic zip format.
+ * <p>
+ * Entry names and comments are always UTF-8 encoded.
+ *
+ * @author Jeroen Gremmen
+ *
+ * @see ArchiveWriterType#CHANNEL
+ */
+final class ZipArchiveWriter implements ArchiveWriter
+{
+  private static final int WRITE_BUFFER_SIZE = 0x100000;
+  private static final int DEFLATE_BUFFER_SIZE = 0x10000;
+  private static final int MAX_RETAINED_DEFLATE_BUFFER_SIZE = 0x100000;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+  private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+  private static final ZipShort ZIP64_EXTRA_FIELD_HEADER_ID = new ZipShort(ZIP64_EXTRA_FIELD_ID);
+  private static final long ZIP64_MAGIC = 0xffffffffL;
+  private static final int ZIP64_MAGIC_SHORT = 0xffff;
+
+  private static final int UTF8_FLAG = 1 << 11;
+
+  private static final int MIN_VERSION = 10;
+  private static final int DEFLATE_MIN_VERSION = 20;
+  private static final int ZIP64_MIN_VERSION = 45;
+
+  private final FileChannel channel;
+  private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+  private final SpillBuffer centralDirectory;
+  private final int defaultMethod;
+  private final MemoryBudget memoryBudget;
+
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final CRC32 crc = new CRC32();
+  private final ByteBuffer header = ByteBuffer.allocate(128).order(LITTLE_ENDIAN);
+  private byte[] deflateBuffer = new byte[DEFLATE_BUFFER_SIZE];
+
+  private long offset = 0;
+  private long entryCount = 0;
+
+
+  /**
+   * Creates a new zip archive writer.
+   *
+   * @param archiveFile    archive file, not {@code null}
+   * @param defaultMethod  compression method for entries without an explicit method
+   * @param memoryBudget   memory budget for the central directory and for compressing large entries,
+   *                       not {@code null}
+   */
+  ZipArchiveWriter(@NotNull File archiveFile, int defaultMethod, @NotNull MemoryBudget memoryBudget)
+      throws IOException
+  {
+    this.channel = FileChannel.open(archiveFile.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+    this.centralDirectory = new SpillBuffer(memoryBudget);
+    this.defaultMethod = defaultMethod;
+    this.memoryBudget = memoryBudget;
+  }
+
+
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) throws IOException
+  {
+    var method = getMethod(entry);
+    if (length == 0)
+      method = STORED;
+
+    crc.reset();
+    crc.update(data, 0, length);
+
+    if (method == DEFLATED)
+    {
+      val compressedLength = deflate(level, data, length);
+
+      writeHeaders(entry, method, compressedLength, length);
+      write(deflateBuffer, compressedLength);
+
+      // don't keep a buffer grown for a large entry for the rest of the archive
+      if (deflateBuffer.length > MAX_RETAINED_DEFLATE_BUFFER_SIZE)
+        deflateBuffer = new byte[DEFLATE_BUFFER_SIZE];
+    }
+    else
+    {
+      writeHeaders(entry, method, length, length);
+      write(data, length);
+    }
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The local file header requires the checksum and compressed size, so the entry data is read twice: once for
+   * calculating the checksum and compressing the data to a separate spill buffer, and once for writing it.
+   */
+  @Override
+  public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+  {
+    val method = data.size() == 0 ? STORED : getMethod(entry);
+
+    crc.reset();
+
+    if (method == DEFLATED)
+    {
+      try(val compressedData = new SpillBuffer(memoryBudget)) {
+        deflater.reset();
+        deflater.setLevel(level);
+
+        val deflaterOutputStream = new DeflaterOutputStream(compressedData, deflater, 0x10000);
+
+        data.writeTo(new CheckedOutputStream(deflaterOutputStream, crc));
+        deflaterOutputStream.finish();
+
+        writeHeaders(entry, method, compressedData.size(), data.size());
+        compressedData.writeTo(new ArchiveOutputStream());
+      }
+    }
+    else
+    {
+      data.writeTo(new CheckedOutputStream(nullOutputStream(), crc));
+
+      writeHeaders(entry, method, data.size(), data.size());
+      data.writeTo(new ArchiveOutputStream());
+    }
+  }
+
+
+  @Contract(pure = true)
+  private int getMethod(@NotNull ZipEntry entry) {
+    return entry.getMethod() == -1 ? defaultMethod : entry.getMethod();
+  }
+
+
+  /**
+   * Writes the local file header for the entry and adds its central directory record. The entry data must be
+   * written immediately after the local file header.
+   *
+   * @param entry           entry, not {@code null}
+   * @param method          compression method
+   * @param compressedSize  size of the entry data as written to the archive
+   * @param size            uncompressed size of the entry data
+   */
+  private void writeHeaders(@NotNull ZipEntry entry, int method, long compressedSize, long size)
+      throws IOException
+  {
+    if (entry.getTime() == -1)
+      entry.setTime(System.currentTimeMillis());
+
+    val name = entry.getName().getBytes(UTF_8);
+    val comment = entry.getComment() == null ? new byte[0] : entry.getComment().getBytes(UTF_8);
+    // a zip64 extra field copied from the source archive is superseded by the one written here
+    if (entry.getExtraField(ZIP64_EXTRA_FIELD_HEADER_ID) != null)
+      entry.removeExtraField(ZIP64_EXTRA_FIELD_HEADER_ID);
+
+    val localExtra = entry.getLocalFileDataExtra();
+    val centralExtra = entry.getCentralDirectoryExtra();
+    val dosTime = toDosTime(entry.getTime());
+    val localHeaderOffset = offset;
+    val zip64Sizes = compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+    val zip64Offset = localHeaderOffset >= ZIP64_MAGIC;
+    val zip64 = zip64Sizes || zip64Offset;
+    val versionNeeded = zip64Sizes
+        ? ZIP64_MIN_VERSION
+        : method == DEFLATED || entry.isDirectory() ? DEFLATE_MIN_VERSION : MIN_VERSION;
+
+    header.clear();
+    header.putInt(LOCAL_FILE_HEADER_SIGNATURE)
+        .putShort((short)versionNeeded)
+        .putShort((short)UTF8_FLAG)
+        .putShort((short)method)
+        .put(dosTime)
+        .putInt((int)crc.getValue())
+        .putInt((int)(zip64Sizes ? ZIP64_MAGIC : compressedSize))
+        .putInt((int)(zip64Sizes ? ZIP64_MAGIC : size))
+        .putShort((short)name.length)
+        .putShort((short)(localExtra.length + (zip64Sizes ? 20 : 0)));
+
+    write(header.array(), header.position());
+    write(name, name.length);
+
+    // the local zip64 extra field must contain both sizes
+    if (zip64Sizes)
+    {
+      header.clear();
+      header.putShort((short)ZIP64_EXTRA_FIELD_ID)
+          .putShort((short)16)
+          .putLong(size)
+          .putLong(compressedSize);
+
+      write(header.array(), header.position());
+    }
+
+    write(localExtra, localExtra.length);
+
+    val zip64ExtraLength = (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0);
+
+    header.clear();
+    header.putInt(CENTRAL_DIRECTORY_SIGNATURE)
+        .putShort((short)(entry.getPlatform() << 8 | (zip64 ? ZIP64_MIN_VERSION : DEFLATE_MIN_VERSION)))
+        .putShort((short)(zip64 ? ZIP64_MIN_VERSION : versionNeeded))
+        .putShort((short)UTF8_FLAG)
+        .putShort((short)method)
+        .put(dosTime)
+        .putInt((int)crc.getValue())
+        .putInt((int)(zip64Sizes ? ZIP64_MAGIC : compressedSize))
+        .putInt((int)(zip64Sizes ? ZIP64_MAGIC : size))
+        .putShort((short)name.length)
+        .putShort((short)(centralExtra.length + (zip64 ? 4 + zip64ExtraLength : 0)))
+        .putShort((short)comment.length)
+        .putShort((short)0)
+        .putShort((short)entry.getInternalAttributes())
+        .putInt((int)entry.getExternalAttributes())
+        .putInt((int)(zip64Offset ? ZIP64_MAGIC : localHeaderOffset));
+
+    centralDirectory.write(header.array(), 0, header.position());
+    centralDirectory.write(name);
+
+    if (zip64)
+    {
+      header.clear();
+      header.putShort((short)ZIP64_EXTRA_FIELD_ID)
+          .putShort((short)zip64ExtraLength);
+
+      if (zip64Sizes)
+        header.putLong(size).putLong(compressedSize);
+      if (zip64Offset)
+        header.putLong(localHeaderOffset);
+
+      centralDirectory.write(header.array(), 0, header.position());
+    }
+
+    centralDirectory.write(centralExtra);
+    centralDirectory.write(comment);
+
+    entryCount++;
+  }
+
+
+  private int deflate(int level, @NotNull byte[] data, int length) throws IOException
+  {
+    deflater.reset();
+    deflater.setLevel(level);
+    deflater.setInput(data, 0, length);
+    deflater.finish();
+
+    var compressedLength = 0;
+
+    while(!deflater.finished())
+    {
+      if (compressedLength == deflateBuffer.length)
+      {
+        if (compressedLength == MAX_ARRAY_SIZE)
+          throw new IOException("Compressed entry data exceeds the maximum array size");
+
+        deflateBuffer = copyOf(deflateBuffer, (int)Math.min(deflateBuffer.length * 2L, MAX_ARRAY_SIZE));
+      }
+
+      compressedLength += deflater.deflate(deflateBuffer, compressedLength, deflateBuffer.length - compressedLength);
+    }
+
+    return compressedLength;
+  }
+
+
+  private void write(@NotNull byte[] data, int length) throws IOException {
+    write(data, 0, length);
+  }
+
+
+  private void write(@NotNull byte[] data, int start, int length) throws IOException
+  {
+    offset += length;
+
+    while(length > 0)
+    {
+      if (!writeBuffer.hasRemaining())
+        flushWriteBuffer();
+
+      val chunkLength = Math.min(length, writeBuffer.remaining());
+
+      writeBuffer.put(data, start, chunkLength);
+      start += chunkLength;
+      length -= chunkLength;
+    }
+  }
+
+
+  private void flushWriteBuffer() throws IOException
+  {
+    writeBuffer.flip();
+
+    while(writeBuffer.hasRemaining())
+      channel.write(writeBuffer);
+
+    writeBuffer.clear();
+  }
+
+
+  /**
+   * Writes the central directory and closes the archive.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    try(channel; centralDirectory) {
+      deflater.end();
+
+      val centralDirectoryOffset = offset;
+      val centralDirectorySize = centralDirectory.size();
+
+      centralDirectory.writeTo(new ArchiveOutputStream());
+
+      if (entryCount >= ZIP64_MAGIC_SHORT || centralDirectoryOffset >= ZIP64_MAGIC ||
+          centralDirectorySize >= ZIP64_MAGIC)
+      {
+        val zip64EndOfCentralDirectoryOffset = offset;
+
+        header.clear();
+        header.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+            .putLong(44)
+            .putShort((short)ZIP64_MIN_VERSION)
+            .putShort((short)ZIP64_MIN_VERSION)
+            .putInt(0)
+            .putInt(0)
+            .putLong(entryCount)
+            .putLong(entryCount)
+            .putLong(centralDirectorySize)
+            .putLong(centralDirectoryOffset)
+            .putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE)
+            .putInt(0)
+            .putLong(zip64EndOfCentralDirectoryOffset)
+            .putInt(1);
+
+        write(header.array(), header.position());
+      }
+
+      header.clear();
+      header.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+          .putShort((short)0)
+          .putShort((short)0)
+          .putShort((short)Math.min(entryCount, ZIP64_MAGIC_SHORT))
+          .putShort((short)Math.min(entryCount, ZIP64_MAGIC_SHORT))
+          .putInt((int)Math.min(centralDirectorySize, ZIP64_MAGIC))
+          .putInt((int)Math.min(centralDirectoryOffset, ZIP64_MAGIC))
+          .putShort((short)0);
+
+      write(header.array(), header.position());
+      flushWriteBuffer();
+    }
+  }
+
+
+
+
+  /** Output stream appending to the archive, used for copying the central directory. */
+  private final class ArchiveOutputStream extends OutputStream
+  {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+    }
+
+
+    @Override
+    public void write(@NotNull byte[] b, int offset, int length) throws IOException {
+      ZipArchiveWriter.this.write(b, offset, length);
+    }
+  }
+}
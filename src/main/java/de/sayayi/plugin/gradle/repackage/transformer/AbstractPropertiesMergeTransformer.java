@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.file.FileTreeElement;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+
+/**
+ * Base class for transformers merging properties files where both the keys and the comma separated values
+ * are class names (e.g. {@code META-INF/spring.factories}).
+ * <p>
+ * Values for the same key are merged in the order they are encountered, omitting duplicate values.
+ *
+ * @author Jeroen Gremmen
+ */
+abstract class AbstractPropertiesMergeTransformer implements Transformer
+{
+  private final Map<String,Map<String,Set<String>>> propertyFiles = new TreeMap<>();
+  private final String path;
+
+
+  protected AbstractPropertiesMergeTransformer(@NotNull String path) {
+    this.path = path;
+  }
+
+
+  @Override
+  public boolean canTransformResource(@NotNull FileTreeElement element) {
+    return path.equals(element.getRelativePath().getPathString());
+  }
+
+
+  @Override
+  @SneakyThrows(IOException.class)
+  public void transform(@NotNull TransformerContext context)
+  {
+    val properties = new Properties();
+    properties.load(context.getInputStream());
+
+    val mergedProperties = propertyFiles.computeIfAbsent(context.getPath(), p -> new TreeMap<>());
+
+    for(val key: properties.stringPropertyNames())
+    {
+      val values = mergedProperties.computeIfAbsent(context.relocateClass(key.trim()),
+          k -> new LinkedHashSet<>());
+
+      for(val value: properties.getProperty(key).split(","))
+      {
+        val trimmedValue = value.trim();
+        if (!trimmedValue.isEmpty())
+          values.add(context.relocateClass(trimmedValue));
+      }
+    }
+  }
+
+
+  @Override
+  public boolean hasTransformedResource() {
+    return !propertyFiles.isEmpty();
+  }
+
+
+  @Override
+  public void modifyOutputStream(@NotNull ZipOutputStream zipOutputStream) throws IOException
+  {
+    for(val propertyFile: propertyFiles.entrySet())
+    {
+      val text = new StringBuilder();
+
+      for(val property: propertyFile.getValue().entrySet())
+        text.append(property.getKey())
+            .append('=')
+            .append(String.join(",\\\n  ", property.getValue()))
+            .append('\n');
+
+      zipOutputStream.putNextEntry(new ZipEntry(propertyFile.getKey()));
+      zipOutputStream.write(text.toString().getBytes(ISO_8859_1));
+      zipOutputStream.closeEntry();
+    }
+  }
+}
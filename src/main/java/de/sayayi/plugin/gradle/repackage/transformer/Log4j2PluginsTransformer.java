@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import lombok.AllArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.file.FileTreeElement;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Locale.ROOT;
+
+
+/**
+ * Merges all Log4j 2 plugin caches ({@code Log4j2Plugins.dat}) found in the input files into a single cache
+ * and relocates the plugin class names contained in the cache.
+ * <p>
+ * The cache format is the binary format written by Log4j's {@code PluginCache}. If multiple caches contain a
+ * plugin with the same key in the same category, the first plugin wins, which is the same behaviour Log4j
+ * applies when loading multiple caches from the classpath.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public final class Log4j2PluginsTransformer implements Transformer
+{
+  public static final String PLUGIN_CACHE_FILE =
+      "META-INF/org/apache/logging/log4j/core/config/plugins/Log4j2Plugins.dat";
+
+  private final Map<String,Map<String,PluginEntry>> categories = new TreeMap<>();
+  private String targetPath = null;
+
+
+  @Override
+  public boolean canTransformResource(@NotNull FileTreeElement element) {
+    return PLUGIN_CACHE_FILE.equals(element.getRelativePath().getPathString());
+  }
+
+
+  @Override
+  @SneakyThrows(IOException.class)
+  public void transform(@NotNull TransformerContext context)
+  {
+    if (targetPath == null)
+      targetPath = context.getPath();
+
+    val in = new DataInputStream(new BufferedInputStream(context.getInputStream()));
+
+    for(int categoryCount = in.readInt(); categoryCount-- > 0;)
+    {
+      val category = categories.computeIfAbsent(in.readUTF().toLowerCase(ROOT), c -> new LinkedHashMap<>());
+
+      for(int entryCount = in.readInt(); entryCount-- > 0;)
+      {
+        val key = in.readUTF();
+        val className = context.relocateClass(in.readUTF());
+        val name = in.readUTF();
+        val printable = in.readBoolean();
+        val defer = in.readBoolean();
+
+        category.putIfAbsent(key, new PluginEntry(key, className, name, printable, defer));
+      }
+    }
+  }
+
+
+  @Override
+  public boolean hasTransformedResource() {
+    return !categories.isEmpty();
+  }
+
+
+  @Override
+  public void modifyOutputStream(@NotNull ZipOutputStream zipOutputStream) throws IOException
+  {
+    zipOutputStream.putNextEntry(new ZipEntry(targetPath));
+
+    // don't close the data output stream as it would close the zip output stream
+    val out = new DataOutputStream(new BufferedOutputStream(zipOutputStream));
+
+    out.writeInt(categories.size());
+
+    for(val category: categories.entrySet())
+    {
+      val plugins = category.getValue();
+
+      out.writeUTF(category.getKey());
+      out.writeInt(plugins.size());
+
+      for(val plugin: plugins.values())
+      {
+        out.writeUTF(plugin.key);
+        out.writeUTF(plugin.className);
+        out.writeUTF(plugin.name);
+        out.writeBoolean(plugin.printable);
+        out.writeBoolean(plugin.defer);
+      }
+    }
+
+    out.flush();
+    zipOutputStream.closeEntry();
+  }
+
+
+
+
+  @AllArgsConstructor
+  private static final class PluginEntry
+  {
+    private final String key;
+    private final String className;
+    private final String name;
+    private final boolean printable;
+    private final boolean defer;
+  }
+}
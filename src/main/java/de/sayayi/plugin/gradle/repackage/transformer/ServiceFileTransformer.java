@@ -15,7 +15,9 @@
  */
 package de.sayayi.plugin.gradle.repackage.transformer;
 
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
 import groovy.lang.Closure;
+import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.apache.tools.zip.ZipEntry;
@@ -29,7 +31,6 @@ import org.gradle.api.tasks.util.PatternSet;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
@@ -40,7 +41,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 @SuppressWarnings("unused")
 public final class ServiceFileTransformer implements Transformer, PatternFilterable
 {
-  private final Map<String,List<String>> serviceEntries = new TreeMap<>();
+  private static final byte[] LINE_SEPARATOR = { '\n' };
+
+  private final Map<String,ServiceFile> serviceEntries = new TreeMap<>();
 
   private final PatternSet servicesPatternSet = new PatternSet()
       .include("META-INF/services/**")
@@ -75,8 +78,10 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
 
     for(val relocator: context.getRelocators())
     {
-      if (relocator.canRelocateClass(new File(targetPath).getName()))
-        targetPath = relocator.relocateClass(targetPath);
+      val serviceNameIndex = targetPath.lastIndexOf('/') + 1;
+      val relocatedServiceName = relocator.tryRelocateClass(targetPath.substring(serviceNameIndex));
+      if (relocatedServiceName != null)
+        targetPath = targetPath.substring(0, serviceNameIndex) + relocatedServiceName;
 
       for(int n = 0, l = lines.size(), hashIndex; n < l; n++)
         if ((hashIndex = (line = lines.get(n)).indexOf('#')) != 0)
@@ -89,14 +94,15 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
           else
             comment = "";
 
-          if (relocator.canRelocateClass(line))
-            lines.set(n, relocator.relocateClass(line) + comment);
+          val relocatedLine = relocator.tryRelocateClass(line);
+          if (relocatedLine != null)
+            lines.set(n, relocatedLine + comment);
         }
     }
 
     serviceEntries
-        .computeIfAbsent(targetPath, p -> new ArrayList<>())
-        .addAll(lines);
+        .computeIfAbsent(targetPath, p -> new ServiceFile(new SpillBuffer(context.getMemoryBudget())))
+        .addLines(lines);
   }
 
 
@@ -140,17 +146,26 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
   @Override
   public void modifyOutputStream(@NotNull ZipOutputStream zipOutputStream) throws IOException
   {
-    List<String> serviceLines;
-
-    for(val serviceEntry: serviceEntries.entrySet())
-      if (!(serviceLines = serviceEntry.getValue()).isEmpty())
+    try {
+      for(val serviceEntry: serviceEntries.entrySet())
       {
-        val zipEntry = new ZipEntry(serviceEntry.getKey());
+        val serviceFile = serviceEntry.getValue();
 
-        zipOutputStream.putNextEntry(zipEntry);
-        zipOutputStream.write(String.join("\n", serviceLines).getBytes(UTF_8));
-        zipOutputStream.closeEntry();
+        if (serviceFile.lineCount > 0)
+        {
+          val zipEntry = new ZipEntry(serviceEntry.getKey());
+
+          zipOutputStream.putNextEntry(zipEntry);
+          serviceFile.lines.writeTo(zipOutputStream);
+          zipOutputStream.closeEntry();
+        }
       }
+    } finally {
+      for(val serviceFile: serviceEntries.values())
+        serviceFile.lines.close();
+
+      serviceEntries.clear();
+    }
   }
 
 
@@ -204,6 +219,7 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
    * {@inheritDoc}
    */
   @Override
+  @SuppressWarnings("rawtypes")
   public @NotNull ServiceFileTransformer include(@NotNull Closure includeSpec)
   {
     servicesPatternSet.include(includeSpec);
@@ -248,6 +264,7 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
    * {@inheritDoc}
    */
   @Override
+  @SuppressWarnings("rawtypes")
   public @NotNull ServiceFileTransformer exclude(@NotNull Closure excludeSpec)
   {
     servicesPatternSet.exclude(excludeSpec);
@@ -295,4 +312,26 @@ public final class ServiceFileTransformer implements Transformer, PatternFiltera
     servicesPatternSet.setExcludes(excludes);
     return this;
   }
+
+
+
+
+  @RequiredArgsConstructor
+  private static final class ServiceFile
+  {
+    private final SpillBuffer lines;
+    private int lineCount;
+
+
+    private void addLines(@NotNull List<String> newLines) throws IOException
+    {
+      for(val line: newLines)
+      {
+        if (lineCount++ > 0)
+          lines.write(LINE_SEPARATOR);
+
+        lines.write(line.getBytes(UTF_8));
+      }
+    }
+  }
 }
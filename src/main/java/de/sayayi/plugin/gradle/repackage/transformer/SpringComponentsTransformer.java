@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+
+/**
+ * Merges all {@code META-INF/spring.components} candidate component indexes and relocates the component
+ * class names and stereotypes.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public final class SpringComponentsTransformer extends AbstractPropertiesMergeTransformer
+{
+  public SpringComponentsTransformer() {
+    super("META-INF/spring.components");
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import lombok.SneakyThrows;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.codehaus.groovy.runtime.IOGroovyMethods;
+import org.gradle.api.file.FileTreeElement;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+
+/**
+ * Merges all Spring Boot {@code META-INF/spring/*.imports} files (e.g. auto configurations) and relocates
+ * both the annotation class name in the file name and the imported class names.
+ * <p>
+ * Comments and empty lines are removed and duplicate imports are written only once.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public final class SpringImportsTransformer implements Transformer
+{
+  private static final String IMPORTS_PREFIX = "META-INF/spring/";
+  private static final String IMPORTS_SUFFIX = ".imports";
+
+  private final Map<String,Set<String>> importFiles = new TreeMap<>();
+
+
+  @Override
+  public boolean canTransformResource(@NotNull FileTreeElement element)
+  {
+    val path = element.getRelativePath().getPathString();
+
+    return
+        path.startsWith(IMPORTS_PREFIX) &&
+        path.endsWith(IMPORTS_SUFFIX) &&
+        path.indexOf('/', IMPORTS_PREFIX.length()) < 0;
+  }
+
+
+  @Override
+  @SneakyThrows(IOException.class)
+  public void transform(@NotNull TransformerContext context)
+  {
+    val path = context.getPath();
+    val annotationClassName = path.substring(IMPORTS_PREFIX.length(), path.length() - IMPORTS_SUFFIX.length());
+    val imports = importFiles.computeIfAbsent(
+        IMPORTS_PREFIX + context.relocateClass(annotationClassName) + IMPORTS_SUFFIX,
+        p -> new LinkedHashSet<>());
+
+    for(var line: IOGroovyMethods.readLines(context.getInputStream()))
+    {
+      val hashIndex = line.indexOf('#');
+      if (hashIndex >= 0)
+        line = line.substring(0, hashIndex);
+
+      if (!(line = line.trim()).isEmpty())
+        imports.add(context.relocateClass(line));
+    }
+  }
+
+
+  @Override
+  public boolean hasTransformedResource() {
+    return !importFiles.isEmpty();
+  }
+
+
+  @Override
+  public void modifyOutputStream(@NotNull ZipOutputStream zipOutputStream) throws IOException
+  {
+    for(val importFile: importFiles.entrySet())
+    {
+      zipOutputStream.putNextEntry(new ZipEntry(importFile.getKey()));
+      zipOutputStream.write((String.join("\n", importFile.getValue()) + '\n').getBytes(UTF_8));
+      zipOutputStream.closeEntry();
+    }
+  }
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.RegexRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import groovy.lang.Closure;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.util.PatternFilterable;
+import org.gradle.api.tasks.util.PatternSet;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+
+/**
+ * Relocates class names and resource paths contained in text resources, like XML configurations,
+ * {@code .properties} files or JSON descriptors.
+ * <p>
+ * The resources to transform must be selected explicitly using include patterns. Each resource is processed in
+ * a single streaming pass, regardless of its size, and the result is collected in a {@link SpillBuffer} until it
+ * is written to the archive, so it is moved to a temporary file once the memory budget is exhausted.
+ * <p>
+ * The relocation patterns of all relocators, both in dotted and in slashed form, are combined into a single
+ * prefix trie. A name (a sequence of letters, digits and {@code _$./-}) is walked through the trie as it is
+ * read, so each byte is examined once regardless of the number of relocators. Each pattern node in the trie
+ * refers to the relocators the pattern belongs to, so a name is only passed to the relocators whose pattern is a
+ * prefix of the name. As names are only matched at name boundaries, no failure links are required as in a full
+ * Aho-Corasick automaton.
+ * <p>
+ * Resources are processed as bytes, so any ASCII compatible encoding (e.g. UTF-8, ISO-8859-1) is preserved.
+ *
+ * @author Jeroen Gremmen
+ */
+@SuppressWarnings("unused")
+public final class TextRelocationTransformer implements Transformer, PatternFilterable
+{
+  /** Names longer than this are copied without relocation. */
+  private static final int MAX_NAME_LENGTH = 4096;
+
+  private final Map<String,SpillBuffer> textFiles = new TreeMap<>();
+
+  private final PatternSet textPatternSet = new PatternSet();
+  private Spec<FileTreeElement> textSpec = null;
+
+  private List<Relocator> trieRelocators = null;
+  private TrieNode trie = null;
+
+
+  private @NotNull Spec<FileTreeElement> getTextSpec()
+  {
+    if (textSpec == null)
+      textSpec = textPatternSet.getAsSpec();
+
+    return textSpec;
+  }
+
+
+  @Override
+  public boolean canTransformResource(@NotNull FileTreeElement element)
+  {
+    // without includes the pattern set would match all resources
+    return
+        !(textPatternSet.getIncludes().isEmpty() && textPatternSet.getIncludeSpecs().isEmpty()) &&
+        getTextSpec().isSatisfiedBy(element);
+  }
+
+
+  @Override
+  @SneakyThrows(IOException.class)
+  public void transform(@NotNull TransformerContext context)
+  {
+    val path = context.getPath();
+
+    // first resource wins, like for all other resources
+    if (textFiles.containsKey(path))
+      return;
+
+    val textFile = new SpillBuffer(context.getMemoryBudget());
+    textFiles.put(path, textFile);
+
+    // the scanner writes single bytes; the buffer is flushed but not closed, as closing discards the data
+    val outputStream = new BufferedOutputStream(textFile, 8192);
+
+    new NameScanner(getTrie(context.getRelocators()), trieRelocators, outputStream).scan(context.getInputStream());
+    outputStream.flush();
+  }
+
+
+  private @NotNull TrieNode getTrie(@NotNull List<Relocator> relocators)
+  {
+    if (trie == null || trieRelocators != relocators)
+    {
+      trieRelocators = relocators;
+      trie = new TrieNode();
+
+      for(int n = 0, size = relocators.size(); n < size; n++)
+      {
+        val relocator = relocators.get(n);
+
+        if (relocator instanceof RegexRelocator)
+        {
+          val regexRelocator = (RegexRelocator)relocator;
+
+          // the expression may match any name, if it doesn't start with literal text
+          if (regexRelocator.getLiteralPrefix().isEmpty())
+            trie.addRelocator(n);
+          else
+          {
+            trie.add(regexRelocator.getLiteralPrefix(), n);
+            trie.add(regexRelocator.getLiteralPathPrefix(), n);
+          }
+        }
+        else if (relocator instanceof DefaultRelocator)
+        {
+          val defaultRelocator = (DefaultRelocator)relocator;
+
+          trie.add(defaultRelocator.getPattern(), n);
+          trie.add(defaultRelocator.getPathPattern(), n);
+        }
+        else
+        {
+          // the relocator's patterns are unknown: every name is a candidate
+          trie.addRelocator(n);
+        }
+      }
+    }
+
+    return trie;
+  }
+
+
+  @Override
+  public boolean hasTransformedResource() {
+    return !textFiles.isEmpty();
+  }
+
+
+  @Override
+  public void modifyOutputStream(@NotNull ZipOutputStream zipOutputStream) throws IOException
+  {
+    try {
+      for(val textFile: textFiles.entrySet())
+      {
+        zipOutputStream.putNextEntry(new ZipEntry(textFile.getKey()));
+        textFile.getValue().writeTo(zipOutputStream);
+        zipOutputStream.closeEntry();
+      }
+    } finally {
+      for(val textFile: textFiles.values())
+        textFile.close();
+
+      textFiles.clear();
+    }
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer include(String @NotNull ... includes)
+  {
+    textPatternSet.include(includes);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer include(@NotNull Iterable<String> includes)
+  {
+    textPatternSet.include(includes);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer include(@NotNull Spec<FileTreeElement> includeSpec)
+  {
+    textPatternSet.include(includeSpec);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public @NotNull TextRelocationTransformer include(@NotNull Closure includeSpec)
+  {
+    textPatternSet.include(includeSpec);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer exclude(String @NotNull ... excludes)
+  {
+    textPatternSet.exclude(excludes);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer exclude(@NotNull Iterable<String> excludes)
+  {
+    textPatternSet.exclude(excludes);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer exclude(@NotNull Spec<FileTreeElement> excludeSpec)
+  {
+    textPatternSet.exclude(excludeSpec);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public @NotNull TextRelocationTransformer exclude(@NotNull Closure excludeSpec)
+  {
+    textPatternSet.exclude(excludeSpec);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @Input
+  public @NotNull Set<String> getIncludes() {
+    return textPatternSet.getIncludes();
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer setIncludes(@NotNull Iterable<String> includes)
+  {
+    textPatternSet.setIncludes(includes);
+    return this;
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @Input
+  public @NotNull Set<String> getExcludes() {
+    return textPatternSet.getExcludes();
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public @NotNull TextRelocationTransformer setExcludes(@NotNull Iterable<String> excludes)
+  {
+    textPatternSet.setExcludes(excludes);
+    return this;
+  }
+
+
+
+
+  private static final class TrieNode
+  {
+    private final TrieNode[] next = new TrieNode[128];
+
+    /** Indices of the relocators with a pattern ending at this node or {@code null} if no pattern ends here. */
+    private BitSet relocators;
+
+
+    private void add(@NotNull String pattern, int relocatorIndex)
+    {
+      var node = this;
+
+      for(val ch: pattern.toCharArray())
+      {
+        if (ch >= 128)
+          return;  // names containing non-ascii characters are never matched
+
+        if (node.next[ch] == null)
+          node.next[ch] = new TrieNode();
+
+        node = node.next[ch];
+      }
+
+      node.addRelocator(relocatorIndex);
+    }
+
+
+    private void addRelocator(int relocatorIndex)
+    {
+      if (relocators == null)
+        relocators = new BitSet();
+
+      relocators.set(relocatorIndex);
+    }
+
+
+    @Contract(pure = true)
+    private TrieNode next(int b) {
+      return b < 128 ? next[b] : null;
+    }
+  }
+
+
+
+
+  private static final class NameScanner
+  {
+    private final TrieNode trie;
+    private final List<Relocator> relocators;
+    private final OutputStream outputStream;
+    private final ByteArrayOutputStream name = new ByteArrayOutputStream(256);
+
+    /** Indices of the relocators with a pattern being a prefix of the current name. */
+    private final BitSet candidateRelocators = new BitSet();
+
+    private State state = State.OUTSIDE_NAME;
+    private TrieNode node;
+
+
+    private NameScanner(@NotNull TrieNode trie, @NotNull List<Relocator> relocators,
+                        @NotNull OutputStream outputStream)
+    {
+      this.trie = trie;
+      this.relocators = relocators;
+      this.outputStream = outputStream;
+    }
+
+
+    private void scan(@NotNull InputStream inputStream) throws IOException
+    {
+      val buffer = new byte[8192];
+
+      for(int length; (length = inputStream.read(buffer)) != -1;)
+        for(int n = 0; n < length; n++)
+          scan(buffer[n] & 0xff);
+
+      endName();
+    }
+
+
+    private void scan(int b) throws IOException
+    {
+      if (!isNameByte(b))
+      {
+        endName();
+        outputStream.write(b);
+        return;
+      }
+
+      if (state == State.OUTSIDE_NAME)
+      {
+        name.reset();
+        candidateRelocators.clear();
+        node = trie;
+        state = State.MATCHING;
+
+        if (trie.relocators != null)
+        {
+          candidateRelocators.or(trie.relocators);
+          state = State.CANDIDATE;
+        }
+      }
+
+      switch(state)
+      {
+        case MATCHING:
+          if ((node = node.next(b)) == null)
+          {
+            // no relocation pattern is a prefix of this name
+            name.writeTo(outputStream);
+            outputStream.write(b);
+            state = State.NO_MATCH;
+          }
+          else
+          {
+            name.write(b);
+            if (node.relocators != null)
+            {
+              candidateRelocators.or(node.relocators);
+              state = State.CANDIDATE;
+            }
+          }
+          break;
+
+        case CANDIDATE:
+          if (name.size() < MAX_NAME_LENGTH)
+          {
+            name.write(b);
+
+            // longer patterns may add more relocators
+            if (node != null && (node = node.next(b)) != null && node.relocators != null)
+              candidateRelocators.or(node.relocators);
+          }
+          else
+          {
+            name.writeTo(outputStream);
+            outputStream.write(b);
+            state = State.NO_MATCH;
+          }
+          break;
+
+        case NO_MATCH:
+          outputStream.write(b);
+          break;
+      }
+    }
+
+
+    private void endName() throws IOException
+    {
+      if (state == State.CANDIDATE)
+      {
+        val name = this.name.toString(ISO_8859_1);
+        val relocatedName = relocate(name);
+
+        outputStream.write((relocatedName == null ? name : relocatedName).getBytes(ISO_8859_1));
+      }
+      else if (state == State.MATCHING)
+        name.writeTo(outputStream);
+
+      state = State.OUTSIDE_NAME;
+    }
+
+
+    /**
+     * Relocates the given name using the first matching candidate relocator, in the order the relocators have
+     * been configured.
+     *
+     * @param name  class name or resource path, not {@code null}
+     *
+     * @return  relocated name or {@code null} if no candidate relocator matches
+     */
+    private @Nullable String relocate(@NotNull String name)
+    {
+      val path = name.indexOf('/') >= 0;
+
+      for(int n = candidateRelocators.nextSetBit(0); n >= 0; n = candidateRelocators.nextSetBit(n + 1))
+      {
+        val relocator = relocators.get(n);
+        val relocatedName = path ? relocator.tryRelocatePath(name) : relocator.tryRelocateClass(name);
+
+        if (relocatedName != null)
+          return relocatedName;
+      }
+
+      return null;
+    }
+
+
+    @Contract(pure = true)
+    private static boolean isNameByte(int b)
+    {
+      return
+          (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') ||
+          b == '.' || b == '/' || b == '_' || b == '$' || b == '-';
+    }
+  }
+
+
+
+
+  private enum State {
+    OUTSIDE_NAME, MATCHING, CANDIDATE, NO_MATCH
+  }
+}
@@ -16,8 +16,12 @@
 package de.sayayi.plugin.gradle.repackage.transformer;
 
 import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.InputStream;
 import java.util.List;
@@ -30,4 +34,54 @@ public class TransformerContext
   private final String path;
   private final InputStream inputStream;
   private final List<Relocator> relocators;
+
+  /** Memory budget for transformers buffering data until {@link Transformer#modifyOutputStream} is invoked. */
+  private final @NotNull MemoryBudget memoryBudget;
+
+
+  public TransformerContext(String path, InputStream inputStream, List<Relocator> relocators) {
+    this(path, inputStream, relocators, MemoryBudget.UNLIMITED);
+  }
+
+
+  /**
+   * Relocates the given class name using the first matching relocator.
+   *
+   * @param className  fully qualified class name, not {@code null}
+   *
+   * @return  relocated class name or the unchanged class name if no relocator matches
+   */
+  @Contract(pure = true)
+  public @NotNull String relocateClass(@NotNull String className)
+  {
+    for(val relocator: relocators)
+    {
+      val relocatedClassName = relocator.tryRelocateClass(className);
+      if (relocatedClassName != null)
+        return relocatedClassName;
+    }
+
+    return className;
+  }
+
+
+  /**
+   * Relocates the given resource path using the first matching relocator.
+   *
+   * @param path  resource path, not {@code null}
+   *
+   * @return  relocated path or the unchanged path if no relocator matches
+   */
+  @Contract(pure = true)
+  public @NotNull String relocatePath(@NotNull String path)
+  {
+    for(val relocator: relocators)
+    {
+      val relocatedPath = relocator.tryRelocatePath(path);
+      if (relocatedPath != null)
+        return relocatedPath;
+    }
+
+    return path;
+  }
 }
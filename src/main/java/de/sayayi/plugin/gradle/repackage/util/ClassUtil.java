@@ -56,6 +56,35 @@ public class ClassUtil
   }
 
 
+  /**
+   * Tells whether the given string could be a class name, an internal class name, a class descriptor or a
+   * resource path. This is a quick check on the characters only, so it returns {@code true} for many strings
+   * that aren't names at all, but it reliably rejects strings containing whitespace or punctuation, like log
+   * messages, SQL statements and format strings.
+   *
+   * @param s  string to check, not {@code null}
+   *
+   * @return  {@code true} if the string could be a class or resource name, {@code false} otherwise
+   */
+  @Contract(pure = true)
+  public static boolean isClassOrResourceNameCandidate(@NotNull String s)
+  {
+    val length = s.length();
+    if (length == 0)
+      return false;
+
+    for(int n = 0; n < length; n++)
+    {
+      val ch = s.charAt(n);
+
+      if (!isJavaIdentifierPart(ch) && ch != '.' && ch != '/' && ch != '-' && ch != '[' && ch != ';')
+        return false;
+    }
+
+    return true;
+  }
+
+
   @Contract(pure = true)
   public static boolean isClassnamePattern(@NotNull String classnamePattern)
   {
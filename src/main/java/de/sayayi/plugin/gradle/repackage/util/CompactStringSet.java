@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.util;
+
+import lombok.val;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOf;
+
+
+/**
+ * Set of strings optimized for memory usage. The strings are stored UTF-8 encoded in a single byte array and
+ * are referenced by an open addressing hash table, so no object is created per string.
+ * <p>
+ * This is useful for large sets of archive paths, which take up to 5 times the memory in a {@code HashSet}.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class CompactStringSet
+{
+  private byte[] data = new byte[0x10000];
+  private int dataSize = 0;
+
+  /** Offset + 1 of each string in {@code data}, {@code 0} for an empty slot. */
+  private int[] offsets = new int[1024];
+  private int[] hashes = new int[1024];
+  private int size = 0;
+
+
+  @Contract(pure = true)
+  public int size() {
+    return size;
+  }
+
+
+  /**
+   * Adds the given string to the set.
+   *
+   * @param s  string, not {@code null}
+   *
+   * @return  {@code true} if the set did not already contain the string
+   */
+  @Contract(mutates = "this")
+  public boolean add(@NotNull String s)
+  {
+    val bytes = s.getBytes(UTF_8);
+    val hash = hash(bytes);
+    val mask = offsets.length - 1;
+
+    for(int slot = hash & mask;; slot = (slot + 1) & mask)
+    {
+      val offset = offsets[slot];
+
+      if (offset == 0)
+      {
+        offsets[slot] = append(bytes) + 1;
+        hashes[slot] = hash;
+
+        if (++size > offsets.length * 3 / 4)
+          rehash();
+
+        return true;
+      }
+
+      if (hashes[slot] == hash && equalsAt(offset - 1, bytes))
+        return false;
+    }
+  }
+
+
+  @Contract(pure = true)
+  private boolean equalsAt(int offset, @NotNull byte[] bytes)
+  {
+    val length = (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+
+    if (length != bytes.length)
+      return false;
+
+    for(int n = 0, o = offset + 2; n < length; n++, o++)
+      if (data[o] != bytes[n])
+        return false;
+
+    return true;
+  }
+
+
+  private int append(@NotNull byte[] bytes)
+  {
+    // zip entry names are limited to 65535 bytes, so 2 bytes are sufficient for the length
+    if (bytes.length > 0xffff)
+      throw new IllegalArgumentException("string too long");
+
+    val offset = dataSize;
+    val newDataSize = offset + 2 + bytes.length;
+
+    if (newDataSize > data.length)
+      data = copyOf(data, Math.max(newDataSize, data.length * 2));
+
+    data[offset] = (byte)(bytes.length >> 8);
+    data[offset + 1] = (byte)bytes.length;
+    System.arraycopy(bytes, 0, data, offset + 2, bytes.length);
+    dataSize = newDataSize;
+
+    return offset;
+  }
+
+
+  private void rehash()
+  {
+    val oldOffsets = offsets;
+    val oldHashes = hashes;
+    val mask = oldOffsets.length * 2 - 1;
+
+    offsets = new int[oldOffsets.length * 2];
+    hashes = new int[oldOffsets.length * 2];
+
+    for(int n = 0; n < oldOffsets.length; n++)
+      if (oldOffsets[n] != 0)
+      {
+        int slot = oldHashes[n] & mask;
+
+        while(offsets[slot] != 0)
+          slot = (slot + 1) & mask;
+
+        offsets[slot] = oldOffsets[n];
+        hashes[slot] = oldHashes[n];
+      }
+  }
+
+
+  @Contract(pure = true)
+  private static int hash(@NotNull byte[] bytes)
+  {
+    // FNV-1a followed by a murmur finalizer to spread the bits for the table mask
+    int hash = 0x811c9dc5;
+
+    for(val b: bytes)
+      hash = (hash ^ b) * 0x01000193;
+
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+
+    return hash;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.util;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.io.File.createTempFile;
+
+
+/**
+ * Number of heap bytes which may be used for buffering data, shared by all {@link SpillBuffer spill buffers}
+ * created with this budget. Once the budget is exhausted, spill buffers move their data to temporary files.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class MemoryBudget
+{
+  /** Budget which never runs out, so spill buffers always keep their data in memory. */
+  public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, null);
+
+
+  private final AtomicLong available;
+  private final File temporaryDirectory;
+
+
+  /**
+   * Creates a new memory budget.
+   *
+   * @param bytes               number of heap bytes available
+   * @param temporaryDirectory  directory for temporary files or {@code null} for the system default
+   */
+  public MemoryBudget(long bytes, @Nullable File temporaryDirectory)
+  {
+    this.available = new AtomicLong(bytes);
+    this.temporaryDirectory = temporaryDirectory;
+  }
+
+
+  /**
+   * Tries to reserve the given number of bytes.
+   *
+   * @param bytes  number of bytes to reserve
+   *
+   * @return  {@code true} if the bytes have been reserved, {@code false} if the budget is exhausted
+   */
+  @Contract(mutates = "this")
+  public boolean reserve(long bytes)
+  {
+    for(long current; (current = available.get()) >= bytes;)
+      if (available.compareAndSet(current, current - bytes))
+        return true;
+
+    return false;
+  }
+
+
+  /**
+   * Returns previously reserved bytes to the budget.
+   *
+   * @param bytes  number of bytes to release
+   */
+  @Contract(mutates = "this")
+  public void release(long bytes)
+  {
+    if (this != UNLIMITED)
+      available.addAndGet(bytes);
+  }
+
+
+  @Contract(pure = true)
+  @NotNull File createSpillFile() throws IOException {
+    return createTempFile("spill", ".tmp", temporaryDirectory);
+  }
+}
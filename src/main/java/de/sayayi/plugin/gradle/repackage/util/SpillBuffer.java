@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.util;
+
+import lombok.val;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.deleteIfExists;
+import static java.util.Arrays.copyOf;
+
+
+/**
+ * Output stream which keeps its data in memory as long as the {@link MemoryBudget} allows, and moves the
+ * data to a temporary file otherwise.
+ * <p>
+ * Closing the buffer deletes the temporary file and releases the memory reserved from the budget.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class SpillBuffer extends OutputStream
+{
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final MemoryBudget memoryBudget;
+  private byte[] buffer = new byte[0];
+  private long size;
+
+  private File spillFile;
+  private OutputStream spillOutputStream;
+
+
+  public SpillBuffer(@NotNull MemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+
+  /**
+   * Returns the number of bytes written to this buffer.
+   *
+   * @return  buffer size
+   */
+  @Contract(pure = true)
+  public long size() {
+    return size;
+  }
+
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte)b }, 0, 1);
+  }
+
+
+  @Override
+  public void write(@NotNull byte[] b, int offset, int length) throws IOException
+  {
+    if (spillOutputStream == null && !ensureCapacity(size + length))
+      spill();
+
+    if (spillOutputStream != null)
+      spillOutputStream.write(b, offset, length);
+    else
+      System.arraycopy(b, offset, buffer, (int)size, length);
+
+    size += length;
+  }
+
+
+  private boolean ensureCapacity(long capacity)
+  {
+    if (capacity <= buffer.length)
+      return true;
+
+    if (capacity > Integer.MAX_VALUE - 8)
+      return false;
+
+    val newCapacity = (int)Math.min(Math.max(capacity, Math.max(INITIAL_CAPACITY, buffer.length * 2L)),
+        Integer.MAX_VALUE - 8);
+
+    if (!memoryBudget.reserve(newCapacity - buffer.length))
+      return false;
+
+    buffer = copyOf(buffer, newCapacity);
+    return true;
+  }
+
+
+  private void spill() throws IOException
+  {
+    spillFile = memoryBudget.createSpillFile();
+    spillOutputStream = new BufferedOutputStream(new FileOutputStream(spillFile), 0x10000);
+    spillOutputStream.write(buffer, 0, (int)size);
+
+    memoryBudget.release(buffer.length);
+    buffer = null;
+  }
+
+
+  /**
+   * Writes the content of this buffer to the given output stream.
+   *
+   * @param outputStream  output stream, not {@code null}
+   */
+  public void writeTo(@NotNull OutputStream outputStream) throws IOException
+  {
+    if (spillOutputStream == null)
+      outputStream.write(buffer, 0, (int)size);
+    else
+    {
+      spillOutputStream.flush();
+      copy(spillFile.toPath(), outputStream);
+    }
+  }
+
+
+  @Override
+  public void close() throws IOException
+  {
+    if (spillOutputStream != null)
+    {
+      try {
+        spillOutputStream.close();
+      } finally {
+        spillOutputStream = null;
+        deleteIfExists(spillFile.toPath());
+      }
+    }
+    else if (buffer != null)
+    {
+      memoryBudget.release(buffer.length);
+      buffer = null;
+    }
+  }
+}
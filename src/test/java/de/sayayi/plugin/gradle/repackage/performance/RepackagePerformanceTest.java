@@ -0,0 +1,281 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.performance;
+
+import lombok.AllArgsConstructor;
+import lombok.val;
+import org.gradle.testkit.runner.GradleRunner;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static java.nio.file.Files.*;
+import static java.util.Objects.requireNonNull;
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Performance regression tests. Each scenario generates synthetic input jars, repackages them using a
+ * {@link GradleRunner} and compares throughput, peak heap usage and output size with the baselines stored in
+ * {@code baselines.properties}. The heap usage is sampled while the repackage task runs and is measured
+ * relative to the heap retained by the daemon before the task starts.
+ * <p>
+ * The baselines depend on the machine they have been measured on, so the tests are not part of the
+ * {@code check} task and must be run explicitly using the {@code performanceTest} task.
+ * <p>
+ * The tests do not require network access: input jars are generated locally and the Gradle distribution used
+ * is the one running the tests.
+ *
+ * @author Jeroen Gremmen
+ */
+@Tag("performance")
+@DisplayName("Repackage performance")
+class RepackagePerformanceTest
+{
+  private static final Properties BASELINES = new Properties();
+
+  @TempDir Path testProjectDir;
+
+
+  @BeforeAll
+  static void loadBaselines() throws IOException
+  {
+    try(val inputStream = requireNonNull(
+        RepackagePerformanceTest.class.getResourceAsStream("baselines.properties"))) {
+      BASELINES.load(inputStream);
+    }
+  }
+
+
+  static Stream<Scenario> scenarios()
+  {
+    return Stream.of(
+        new Scenario("small", 2, 1_000, 20, 5, 200, 10),
+        new Scenario("large", 8, 5_000, 100, 10, 1_000, 50),
+        new Scenario("resources", 4, 500, 10, 2, 10_000, 200)
+    );
+  }
+
+
+  @DisplayName("Repackage synthetic jars")
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("scenarios")
+  void testScenario(@NotNull Scenario scenario) throws IOException
+  {
+    val inputJars = generateInputJars(scenario);
+    long inputSize = 0;
+
+    for(val inputJar: inputJars)
+      inputSize += size(inputJar);
+
+    prepareProject(inputJars);
+
+    // first run warms up the daemon, second run is measured
+    runRepackage("repackage-bundle");
+    runRepackage("repackage-bundle", "--rerun-tasks");
+
+    val metrics = new Properties();
+    try(Reader reader = newBufferedReader(testProjectDir.resolve("build/metrics.properties"))) {
+      metrics.load(reader);
+    }
+
+    val seconds = Long.parseLong(metrics.getProperty("nanos")) / 1e9;
+    val throughput = inputSize / seconds / (1024 * 1024);
+    val peakHeap = Long.parseLong(metrics.getProperty("peakHeap")) / (1024 * 1024);
+    val outputSize = Long.parseLong(metrics.getProperty("outputSize"));
+
+    writeReport(scenario, throughput, peakHeap, outputSize);
+
+    val minThroughput = baseline(scenario, "throughput") * (1 - tolerance("throughput"));
+    assertTrue(throughput >= minThroughput, () -> String.format(
+        "%s: throughput %.1f MB/s is below threshold %.1f MB/s", scenario, throughput, minThroughput));
+
+    val maxPeakHeap = baseline(scenario, "peakHeap") * (1 + tolerance("peakHeap"));
+    assertTrue(peakHeap <= maxPeakHeap, () -> String.format(
+        "%s: peak heap %d MB exceeds threshold %.0f MB", scenario, peakHeap, maxPeakHeap));
+
+    val maxOutputSize = baseline(scenario, "outputSize") * (1 + tolerance("outputSize"));
+    assertTrue(outputSize <= maxOutputSize, () -> String.format(
+        "%s: output size %d bytes exceeds threshold %.0f bytes", scenario, outputSize, maxOutputSize));
+  }
+
+
+  private @NotNull List<Path> generateInputJars(@NotNull Scenario scenario) throws IOException
+  {
+    val libsDir = createDirectories(testProjectDir.resolve("libs"));
+    val generator = SyntheticJarGenerator.builder()
+        .classes(scenario.classes)
+        .packages(scenario.packages)
+        .crossReferences(scenario.crossReferences)
+        .resources(scenario.resources)
+        .serviceFiles(scenario.serviceFiles)
+        .build();
+    val inputJars = new ArrayList<Path>();
+
+    for(int n = 0; n < scenario.jars; n++)
+    {
+      val jar = libsDir.resolve("synthetic-" + n + ".jar");
+      generator.generate(jar.toFile(), n);
+      inputJars.add(jar);
+    }
+
+    return inputJars;
+  }
+
+
+  private void prepareProject(@NotNull List<Path> inputJars) throws IOException
+  {
+    write(testProjectDir.resolve("settings.gradle"),
+        List.of("rootProject.name = 'performance-repackage'"));
+
+    write(testProjectDir.resolve("gradle.properties"),
+        List.of("org.gradle.jvmargs=-Xmx1g"));
+
+    val from = new StringBuilder();
+    for(val inputJar: inputJars)
+      from.append(from.length() == 0 ? "" : ", ").append("'libs/").append(inputJar.getFileName()).append('\'');
+
+    write(testProjectDir.resolve("build.gradle"), List.of(
+        "import java.lang.management.ManagementFactory",
+        "import java.util.concurrent.atomic.AtomicLong",
+        "plugins {",
+        "  id 'java'",
+        "  id 'de.sayayi.plugin.gradle.repackage'",
+        "}",
+        "dependencies {",
+        "  implementation repackage.dependency('bundle') {",
+        "    from files(" + from + ")",
+        "    relocate 'org.synthetic', 'shaded.synthetic'",
+        "    reproducible.set(true)",
+        "  }",
+        "}",
+        "tasks.named('repackage-bundle') {",
+        "  def metricsFile = layout.buildDirectory.file('metrics.properties').get().asFile",
+        "  def peakHeap = new AtomicLong()",
+        "  def sampleHeap = {",
+        "    peakHeap.accumulateAndGet(ManagementFactory.memoryMXBean.heapMemoryUsage.used, Math::max)",
+        "  }",
+        "  long start = 0",
+        "  long retainedHeap = 0",
+        "  Thread heapSampler = null",
+        "  doFirst {",
+        "    System.gc()",
+        "    retainedHeap = ManagementFactory.memoryMXBean.heapMemoryUsage.used",
+        "    peakHeap.set(retainedHeap)",
+        "    heapSampler = Thread.startDaemon {",
+        "      try {",
+        "        while(true) {",
+        "          sampleHeap()",
+        "          Thread.sleep(5)",
+        "        }",
+        "      } catch(InterruptedException ignored) {",
+        "      }",
+        "    }",
+        "    start = System.nanoTime()",
+        "  }",
+        "  doLast {",
+        "    def nanos = System.nanoTime() - start",
+        "    heapSampler.interrupt()",
+        "    heapSampler.join()",
+        "    sampleHeap()",
+        "    metricsFile.text = \"nanos=${nanos}\\npeakHeap=${peakHeap.get() - retainedHeap}\\n\" +",
+        "        \"outputSize=${destinationPath.asFile.length()}\\n\"",
+        "  }",
+        "}"
+    ));
+  }
+
+
+  private void runRepackage(@NotNull String... arguments)
+  {
+    val args = new ArrayList<String>(List.of(arguments));
+    args.add("--offline");
+    args.add("--stacktrace");
+
+    val result = GradleRunner.create()
+        .withProjectDir(testProjectDir.toFile())
+        .withArguments(args)
+        .withPluginClasspath()
+        .build();
+
+    assertEquals(SUCCESS, requireNonNull(result.task(":" + arguments[0])).getOutcome());
+  }
+
+
+  private void writeReport(@NotNull Scenario scenario, double throughput, long peakHeap, long outputSize)
+      throws IOException
+  {
+    val reportDir = System.getProperty("repackage.performance.reportDir");
+    if (reportDir != null)
+    {
+      val report = new Properties();
+      report.setProperty(scenario.name + ".throughput", String.format("%.1f", throughput));
+      report.setProperty(scenario.name + ".peakHeap", Long.toString(peakHeap));
+      report.setProperty(scenario.name + ".outputSize", Long.toString(outputSize));
+
+      try(Writer writer = newBufferedWriter(
+          createDirectories(Path.of(reportDir)).resolve(scenario.name + ".properties"))) {
+        report.store(writer, null);
+      }
+    }
+  }
+
+
+  private static double baseline(@NotNull Scenario scenario, @NotNull String metric) {
+    return Double.parseDouble(requireNonNull(BASELINES.getProperty(scenario.name + '.' + metric)));
+  }
+
+
+  private static double tolerance(@NotNull String metric) {
+    return Double.parseDouble(BASELINES.getProperty("tolerance." + metric, "0"));
+  }
+
+
+
+
+  @AllArgsConstructor
+  static final class Scenario
+  {
+    final String name;
+    final int jars;
+    final int classes;
+    final int packages;
+    final int crossReferences;
+    final int resources;
+    final int serviceFiles;
+
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.performance;
+
+import lombok.Builder;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newOutputStream;
+import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.*;
+
+
+/**
+ * Generates synthetic jars for performance tests. The generated content only depends on the settings and the
+ * jar index, so jars are identical across runs.
+ *
+ * @author Jeroen Gremmen
+ */
+@Builder
+final class SyntheticJarGenerator
+{
+  /** Base package of all generated classes, in internal form. */
+  static final String BASE_PACKAGE = "org/synthetic";
+
+  private final int classes;
+  private final int packages;
+  private final int crossReferences;
+  private final int resources;
+  private final int serviceFiles;
+
+
+  /**
+   * Generates a jar.
+   *
+   * @param jarFile   jar file to create, not {@code null}
+   * @param jarIndex  index of the jar, used to make class names unique across jars
+   */
+  void generate(@NotNull File jarFile, int jarIndex) throws IOException
+  {
+    val random = new Random(jarIndex * 31L + classes);
+    val classNames = new ArrayList<String>(classes);
+
+    for(int n = 0; n < classes; n++)
+      classNames.add(BASE_PACKAGE + "/j" + jarIndex + "/p" + (n % packages) + "/C" + n);
+
+    val manifest = new Manifest();
+    manifest.getMainAttributes().put(MANIFEST_VERSION, "1.0");
+
+    try(val jarOutputStream = new JarOutputStream(newOutputStream(jarFile.toPath()), manifest)) {
+      for(val className: classNames)
+      {
+        jarOutputStream.putNextEntry(new JarEntry(className + ".class"));
+        jarOutputStream.write(generateClass(className, pickReferences(classNames, random)));
+        jarOutputStream.closeEntry();
+      }
+
+      for(int n = 0; n < resources; n++)
+      {
+        val className = classNames.get(random.nextInt(classes));
+
+        jarOutputStream.putNextEntry(new JarEntry(className + "-resource" + n + ".properties"));
+        writeResource(jarOutputStream, pickReferences(classNames, random));
+        jarOutputStream.closeEntry();
+      }
+
+      for(int n = 0; n < serviceFiles; n++)
+      {
+        jarOutputStream.putNextEntry(new JarEntry("META-INF/services/" +
+            (BASE_PACKAGE + "/j" + jarIndex + "/Service" + n).replace('/', '.')));
+        writeServiceFile(jarOutputStream, pickReferences(classNames, random));
+        jarOutputStream.closeEntry();
+      }
+    }
+  }
+
+
+  private @NotNull List<String> pickReferences(@NotNull List<String> classNames, @NotNull Random random)
+  {
+    val references = new ArrayList<String>(crossReferences);
+
+    for(int n = 0; n < crossReferences; n++)
+      references.add(classNames.get(random.nextInt(classNames.size())));
+
+    return references;
+  }
+
+
+  private static @NotNull byte[] generateClass(@NotNull String className, @NotNull List<String> references)
+  {
+    val classWriter = new ClassWriter(COMPUTE_MAXS);
+
+    classWriter.visit(V11, ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object", null);
+    classWriter.visitSource(className.substring(className.lastIndexOf('/') + 1) + ".java", null);
+
+    for(int n = 0; n < references.size(); n++)
+    {
+      classWriter.visitField(ACC_PRIVATE, "field" + n, Type.getObjectType(references.get(n)).getDescriptor(),
+          null, null).visitEnd();
+    }
+
+    val constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(ALOAD, 0);
+    constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    constructor.visitInsn(RETURN);
+    constructor.visitMaxs(0, 0);
+    constructor.visitEnd();
+
+    val method = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "run", "()V", null, null);
+    method.visitCode();
+
+    for(val reference: references)
+    {
+      method.visitMethodInsn(INVOKESTATIC, reference, "touch", "()V", false);
+      method.visitLdcInsn(reference.replace('/', '.'));
+      method.visitInsn(POP);
+      method.visitLdcInsn("message for " + reference.substring(reference.lastIndexOf('/') + 1));
+      method.visitInsn(POP);
+    }
+
+    method.visitInsn(RETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+
+    val touch = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "touch", "()V", null, null);
+    touch.visitCode();
+    touch.visitInsn(RETURN);
+    touch.visitMaxs(0, 0);
+    touch.visitEnd();
+
+    classWriter.visitEnd();
+
+    return classWriter.toByteArray();
+  }
+
+
+  private static void writeResource(@NotNull OutputStream outputStream, @NotNull List<String> references)
+      throws IOException
+  {
+    val text = new StringBuilder();
+
+    for(int n = 0; n < references.size(); n++)
+      text.append("class").append(n).append('=').append(references.get(n).replace('/', '.')).append('\n');
+
+    outputStream.write(text.toString().getBytes(UTF_8));
+  }
+
+
+  private static void writeServiceFile(@NotNull OutputStream outputStream, @NotNull List<String> references)
+      throws IOException
+  {
+    val text = new StringBuilder();
+
+    for(val reference: references)
+      text.append(reference.replace('/', '.')).append('\n');
+
+    outputStream.write(text.toString().getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.relocator;
+
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Default relocator")
+class DefaultRelocatorTest
+{
+  @Test
+  @DisplayName("Single call relocation matches can/relocate")
+  void testTryRelocate()
+  {
+    val relocator = new DefaultRelocator("org.example", "shaded.example");
+    relocator.exclude("org.example.Excluded");
+
+    for(val path: new String[] {
+        "org/example/Foo", "org/example/Foo.class", "/org/example/foo.xml", "org/example/Excluded.class",
+        "com/example/Foo", "org/exam", ".class" })
+    {
+      assertEquals(relocator.canRelocatePath(path) ? relocator.relocatePath(path) : null,
+          relocator.tryRelocatePath(path), path);
+    }
+
+    for(val className: new String[] {
+        "org.example.Foo", "org.example.foo.Bar", "org.example.Excluded", "com.example.Foo", "org/example/Foo" })
+    {
+      assertEquals(relocator.canRelocateClass(className) ? relocator.relocateClass(className) : null,
+          relocator.tryRelocateClass(className), className);
+    }
+  }
+
+
+  @Test
+  @DisplayName("Custom relocator uses default single call relocation")
+  void testCustomRelocator()
+  {
+    val relocator = new Relocator() {
+      @Override
+      public boolean canRelocatePath(@NotNull String path) {
+        return path.startsWith("a/");
+      }
+
+      @Override
+      public @NotNull String relocatePath(@NotNull String path) {
+        return "b/" + path.substring(2);
+      }
+
+      @Override
+      public boolean canRelocateClass(@NotNull String className) {
+        return className.startsWith("a.");
+      }
+
+      @Override
+      public @NotNull String relocateClass(@NotNull String className) {
+        return "b." + className.substring(2);
+      }
+    };
+
+    assertEquals("b/Foo", relocator.tryRelocatePath("a/Foo"));
+    assertNull(relocator.tryRelocatePath("c/Foo"));
+    assertEquals("b.Foo", relocator.tryRelocateClass("a.Foo"));
+    assertNull(relocator.tryRelocateClass("c.Foo"));
+  }
+}
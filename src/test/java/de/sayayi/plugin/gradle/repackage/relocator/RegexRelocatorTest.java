@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.relocator;
+
+import lombok.val;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Regex relocator")
+class RegexRelocatorTest
+{
+  @Test
+  @DisplayName("Relocate class names using capture groups")
+  void testRelocateClass()
+  {
+    val relocator = new RegexRelocator("%regex[org\\.(\\w+)\\.internal]", "shaded.$1.internal");
+
+    assertTrue(relocator.canRelocateClass("org.example.internal.Foo"));
+    assertEquals("shaded.example.internal.Foo", relocator.relocateClass("org.example.internal.Foo"));
+    assertEquals("shaded.acme.internal.util.Bar", relocator.relocateClass("org.acme.internal.util.Bar"));
+
+    assertFalse(relocator.canRelocateClass("org.example.api.Foo"));
+    assertFalse(relocator.canRelocateClass("com.example.internal.Foo"));
+    assertFalse(relocator.canRelocateClass("org/example/internal/Foo"));
+  }
+
+
+  @Test
+  @DisplayName("Relocate paths using capture groups")
+  void testRelocatePath()
+  {
+    val relocator = new RegexRelocator("%regex[org\\.(\\w+)\\.internal]", "shaded.$1.internal");
+
+    assertEquals("shaded/example/internal/Foo", relocator.relocatePath("org/example/internal/Foo"));
+    assertEquals("shaded/example/internal/Foo.class", relocator.relocatePath("org/example/internal/Foo.class"));
+    assertEquals("shaded/example/internal/foo.xml", relocator.relocatePath("org/example/internal/foo.xml"));
+    assertEquals("/shaded/example/internal/foo.xml", relocator.relocatePath("/org/example/internal/foo.xml"));
+
+    assertFalse(relocator.canRelocatePath("org/example/api/Foo"));
+  }
+
+
+  @Test
+  @DisplayName("Extension is not matched")
+  void testExtensionNotMatched()
+  {
+    val relocator = new RegexRelocator("%regex[org\\.example\\.(.*)]", "shaded.$1");
+
+    assertEquals("shaded/foo/Bar.properties", relocator.relocatePath("org/example/foo/Bar.properties"));
+    assertEquals("shaded.foo.Bar", relocator.relocateClass("org.example.foo.Bar"));
+  }
+
+
+  @Test
+  @DisplayName("Include and exclude patterns")
+  void testIncludeExclude()
+  {
+    val relocator = new RegexRelocator("%regex[org\\.(\\w+)]", "shaded.$1");
+    relocator.exclude("org.example.Excluded");
+
+    assertTrue(relocator.canRelocateClass("org.example.Foo"));
+    assertFalse(relocator.canRelocateClass("org.example.Excluded"));
+    assertFalse(relocator.canRelocatePath("org/example/Excluded.class"));
+  }
+
+
+  @Test
+  @DisplayName("Literal prefix")
+  void testLiteralPrefix()
+  {
+    assertEquals("org.example.", new RegexRelocator("%regex[org\\.example\\.(\\w+)]", null).getLiteralPrefix());
+    assertEquals("org/example/", new RegexRelocator("%regex[org\\.example\\.(\\w+)]", null).getLiteralPathPrefix());
+    assertEquals("org", new RegexRelocator("%regex[org.(\\w+)]", null).getLiteralPrefix());
+    assertEquals("com.example", new RegexRelocator("%regex[com\\.examples?]", null).getLiteralPrefix());
+    assertEquals("", new RegexRelocator("%regex[org|com]", null).getLiteralPrefix());
+  }
+
+
+  @Test
+  @DisplayName("Regex pattern creates regex relocator")
+  void testCreate()
+  {
+    assertInstanceOf(RegexRelocator.class, DefaultRelocator.create("%regex[org\\.(\\w+)]", "shaded.$1"));
+    assertFalse(DefaultRelocator.create("org.example", "shaded.example") instanceof RegexRelocator);
+    assertEquals("hidden.org.example.Foo",
+        DefaultRelocator.create("%regex[org\\.example]", null).relocateClass("org.example.Foo"));
+  }
+}
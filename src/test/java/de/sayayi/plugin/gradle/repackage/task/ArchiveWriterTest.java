@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipFile;
+
+import static de.sayayi.plugin.gradle.repackage.task.ArchiveWriterType.JAVA_UTIL_ZIP;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
+import static org.apache.tools.zip.UnixStat.DIR_FLAG;
+import static org.apache.tools.zip.UnixStat.FILE_FLAG;
+import static org.apache.tools.zip.ZipOutputStream.DEFLATED;
+import static org.apache.tools.zip.ZipOutputStream.STORED;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Archive writer")
+class ArchiveWriterTest
+{
+  /** Zip entries store their time with a resolution of 2 seconds. */
+  private static final long TIME = LocalDateTime.of(2024, 5, 17, 10, 42, 16)
+      .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+  @TempDir File tempDir;
+
+
+  @ParameterizedTest(name = "{0}")
+  @DisplayName("Write stored, deflated, empty, directory and spilled entries")
+  @EnumSource(ArchiveWriterType.class)
+  void testWriteEntries(ArchiveWriterType archiveWriterType) throws IOException
+  {
+    val archiveFile = new File(tempDir, "archive.zip");
+    val memoryBudget = new MemoryBudget(0, tempDir);
+    val text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.\n".repeat(100).getBytes(UTF_8);
+    val random = new byte[200_000];
+
+    new Random(42).nextBytes(random);
+
+    try(val archiveWriter = archiveWriterType.createWriter(archiveFile, DEFLATED, memoryBudget)) {
+      archiveWriter.writeEntry(createEntry("org/", -1, DIR_FLAG | 0755), DEFAULT_COMPRESSION, new byte[0], 0);
+      archiveWriter.writeEntry(createEntry("org/stored.txt", STORED, FILE_FLAG | 0644), DEFAULT_COMPRESSION,
+          text, text.length);
+      archiveWriter.writeEntry(createEntry("org/deflated.txt", DEFLATED, FILE_FLAG | 0600), 9,
+          text, text.length);
+      archiveWriter.writeEntry(createEntry("org/empty.txt", -1, FILE_FLAG | 0644), DEFAULT_COMPRESSION,
+          new byte[0], 0);
+
+      try(val spillBuffer = new SpillBuffer(memoryBudget)) {
+        spillBuffer.write(random);
+        archiveWriter.writeEntry(createEntry("org/spilled.bin", -1, FILE_FLAG | 0755), DEFAULT_COMPRESSION,
+            spillBuffer);
+        archiveWriter.writeEntry(createEntry("org/spilled-stored.bin", STORED, FILE_FLAG | 0644),
+            DEFAULT_COMPRESSION, spillBuffer);
+      }
+    }
+
+    try(val zipFile = new ZipFile(archiveFile)) {
+      assertArrayEquals(new String[] {
+          "org/", "org/stored.txt", "org/deflated.txt", "org/empty.txt", "org/spilled.bin", "org/spilled-stored.bin"
+      }, zipFile.stream().map(java.util.zip.ZipEntry::getName).toArray(String[]::new));
+
+      assertTrue(zipFile.getEntry("org/").isDirectory());
+      assertEquals(STORED, zipFile.getEntry("org/stored.txt").getMethod());
+      assertEquals(DEFLATED, zipFile.getEntry("org/deflated.txt").getMethod());
+      assertEquals(STORED, zipFile.getEntry("org/spilled-stored.bin").getMethod());
+
+      assertContent(zipFile, "org/", new byte[0]);
+      assertContent(zipFile, "org/stored.txt", text);
+      assertContent(zipFile, "org/deflated.txt", text);
+      assertContent(zipFile, "org/empty.txt", new byte[0]);
+      assertContent(zipFile, "org/spilled.bin", random);
+      assertContent(zipFile, "org/spilled-stored.bin", random);
+    }
+
+    // the JDK writer doesn't write unix modes
+    if (archiveWriterType != JAVA_UTIL_ZIP)
+    {
+      try(val zipFile = org.apache.commons.compress.archivers.zip.ZipFile.builder().setFile(archiveFile).get()) {
+        assertEquals(0755, zipFile.getEntry("org/").getUnixMode() & 0777);
+        assertEquals(0644, zipFile.getEntry("org/stored.txt").getUnixMode() & 0777);
+        assertEquals(0600, zipFile.getEntry("org/deflated.txt").getUnixMode() & 0777);
+        assertEquals(0644, zipFile.getEntry("org/empty.txt").getUnixMode() & 0777);
+        assertEquals(0755, zipFile.getEntry("org/spilled.bin").getUnixMode() & 0777);
+        assertEquals(0644, zipFile.getEntry("org/spilled-stored.bin").getUnixMode() & 0777);
+      }
+    }
+
+    // spill files are deleted once the spill buffer has been closed
+    assertArrayEquals(new String[] { "archive.zip" }, tempDir.list());
+  }
+
+
+  private static @NotNull ZipEntry createEntry(@NotNull String name, int method, int unixMode)
+  {
+    val entry = new ZipEntry(name);
+
+    entry.setTime(TIME);
+    entry.setUnixMode(unixMode);
+
+    if (method != -1)
+      entry.setMethod(method);
+
+    return entry;
+  }
+
+
+  private static void assertContent(@NotNull ZipFile zipFile, @NotNull String name, @NotNull byte[] data)
+      throws IOException
+  {
+    val entry = zipFile.getEntry(name);
+    val crc = new CRC32();
+
+    crc.update(data);
+
+    assertEquals(data.length, entry.getSize(), name);
+    assertEquals(crc.getValue(), entry.getCrc(), name);
+    assertEquals(TIME, entry.getTime(), name);
+    assertArrayEquals(data, zipFile.getInputStream(entry).readAllBytes(), name);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import de.sayayi.plugin.gradle.repackage.util.SpillBuffer;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.CLASSES_AND_PATHS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.writeString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Class load order")
+class ClassLoadOrderTest
+{
+  @TempDir File tempDir;
+
+
+  @ParameterizedTest(name = "{0}")
+  @DisplayName("Read class names from trace")
+  @ValueSource(strings = {
+      "[0.012s][info][class,load] org.example.Foo source: file:/app/example.jar",
+      "org.example.Foo source: file:/app/example.jar",
+      "[Loaded org.example.Foo from file:/app/example.jar]",
+      "org/example/Foo id: 42 super: 0 interfaces: 1 source: example.jar"
+  })
+  void testReadClassNames(String line) throws IOException
+  {
+    val traceFile = new File(tempDir, "trace.log");
+
+    writeString(traceFile.toPath(), "# class list\n@lambda-proxy org/example/Bar run\n\n" + line + '\n');
+
+    assertEquals(List.of("org/example/Foo"), ClassLoadOrder.readClassNames(traceFile));
+  }
+
+
+  @Test
+  @DisplayName("Order entries before they are written")
+  void testOrderingWriter() throws IOException
+  {
+    val classLoadOrder = ClassLoadOrder.create(List.of("org/example/Bar", "org/example/Foo"),
+        new RelocatorRemapper(List.<Relocator>of(new DefaultRelocator("org.example", "shaded.example")),
+            CLASSES_AND_PATHS));
+    val writtenEntries = new ArrayList<String>();
+    val target = new ArchiveWriter() {
+      @Override
+      public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull byte[] data, int length) {
+        writtenEntries.add(entry.getName() + '=' + new String(data, 0, length, UTF_8));
+      }
+
+
+      @Override
+      public void writeEntry(@NotNull ZipEntry entry, int level, @NotNull SpillBuffer data) throws IOException
+      {
+        val bytes = new ByteArrayOutputStream();
+        data.writeTo(bytes);
+
+        writtenEntries.add(entry.getName() + '=' + bytes.toString(UTF_8));
+      }
+
+
+      @Override
+      public void close() {
+      }
+    };
+
+    // a memory budget of 0 moves each entry to a spill file
+    try(val orderingWriter = classLoadOrder.createOrderingWriter(target, new MemoryBudget(0, tempDir))) {
+      for(val name: List.of("org/example/readme.txt", "org/example/Foo.class", "META-INF/MANIFEST.MF",
+                            "shaded/example/Bar.class", "org/example/Other.class"))
+      {
+        val data = name.getBytes(UTF_8);
+        orderingWriter.writeEntry(new ZipEntry(name), 9, data, data.length);
+      }
+    }
+
+    assertEquals(List.of(
+        "META-INF/MANIFEST.MF=META-INF/MANIFEST.MF",
+        "shaded/example/Bar.class=shaded/example/Bar.class",
+        "org/example/Foo.class=org/example/Foo.class",
+        "org/example/readme.txt=org/example/readme.txt",
+        "org/example/Other.class=org/example/Other.class"), writtenEntries);
+
+    // spill files are deleted once the entries have been written
+    assertArrayEquals(new String[0], tempDir.list());
+  }
+}
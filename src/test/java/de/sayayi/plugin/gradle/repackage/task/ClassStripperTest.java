@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.StripOption;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static de.sayayi.plugin.gradle.repackage.relocator.StripOption.*;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.*;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Class stripper")
+class ClassStripperTest
+{
+  @Test
+  @DisplayName("Strip debug information and matching invisible annotations")
+  void testStripDebugInformation()
+  {
+    val original = record(createClass());
+    val stripped = record(strip(createClass(), Set.of(LINE_NUMBERS, LOCAL_VARIABLES, SOURCE_FILE),
+        Set.of("org.example.Invisible")));
+
+    assertTrue(original.containsAll(List.of("source Foo.java", "line 10", "local count I 1",
+        "parameter-annotation 0 Lorg/example/Invisible; invisible")));
+    assertEquals(original.stream()
+        .filter(event -> !event.startsWith("line ") && !event.startsWith("local ") && !event.startsWith("source "))
+        .filter(event -> !event.endsWith(" Lorg/example/Invisible; invisible"))
+        .collect(toList()), stripped);
+  }
+
+
+  @Test
+  @DisplayName("Strip all invisible annotations")
+  void testStripInvisibleAnnotations()
+  {
+    val original = record(createClass());
+    val stripped = record(strip(createClass(), Set.of(INVISIBLE_ANNOTATIONS), Set.of()));
+
+    assertEquals(original.stream()
+        .filter(event -> !event.endsWith(" invisible"))
+        .collect(toList()), stripped);
+  }
+
+
+  private static @NotNull byte[] strip(@NotNull byte[] classBytes, @NotNull Set<StripOption> strip,
+                                       @NotNull Set<String> stripAnnotations)
+  {
+    val classWriter = new ClassWriter(0);
+
+    new ClassReader(classBytes).accept(
+        ClassStripper.wrap(classWriter, "org/example/Foo", strip, stripAnnotations, List.of()), 0);
+
+    return classWriter.toByteArray();
+  }
+
+
+  private static @NotNull byte[] createClass()
+  {
+    val classWriter = new ClassWriter(COMPUTE_MAXS);
+
+    classWriter.visit(V11, ACC_PUBLIC, "org/example/Foo", null, "java/lang/Object", null);
+    classWriter.visitSource("Foo.java", null);
+    classWriter.visitAnnotation("Lorg/example/Visible;", true).visitEnd();
+    classWriter.visitAnnotation("Lorg/example/Invisible;", false).visitEnd();
+    classWriter.visitAnnotation("Lorg/example/Kept;", false).visitEnd();
+
+    val fieldVisitor = classWriter.visitField(ACC_PRIVATE, "value", "I", null, null);
+    fieldVisitor.visitAnnotation("Lorg/example/Visible;", true).visitEnd();
+    fieldVisitor.visitAnnotation("Lorg/example/Invisible;", false).visitEnd();
+    fieldVisitor.visitEnd();
+
+    val methodVisitor = classWriter.visitMethod(ACC_PUBLIC, "increment", "(I)I", null, null);
+    methodVisitor.visitAnnotation("Lorg/example/Invisible;", false).visitEnd();
+    methodVisitor.visitParameterAnnotation(0, "Lorg/example/Invisible;", false).visitEnd();
+    methodVisitor.visitParameterAnnotation(0, "Lorg/example/Kept;", false).visitEnd();
+    methodVisitor.visitCode();
+
+    val start = new Label();
+    val end = new Label();
+
+    methodVisitor.visitLabel(start);
+    methodVisitor.visitLineNumber(10, start);
+    methodVisitor.visitVarInsn(ILOAD, 1);
+    methodVisitor.visitInsn(ICONST_1);
+    methodVisitor.visitInsn(IADD);
+    methodVisitor.visitInsn(IRETURN);
+    methodVisitor.visitLabel(end);
+    methodVisitor.visitLocalVariable("this", "Lorg/example/Foo;", null, start, end, 0);
+    methodVisitor.visitLocalVariable("count", "I", null, start, end, 1);
+    methodVisitor.visitMaxs(0, 0);
+    methodVisitor.visitEnd();
+
+    classWriter.visitEnd();
+
+    return classWriter.toByteArray();
+  }
+
+
+  /**
+   * Reads the given class and records the visited class file content, except for labels and frames.
+   */
+  private static @NotNull List<String> record(@NotNull byte[] classBytes)
+  {
+    val events = new ArrayList<String>();
+
+    new ClassReader(classBytes).accept(new ClassVisitor(ASM9) {
+      @Override
+      public void visit(int version, int access, String name, String signature, String superName,
+                        String[] interfaces)
+      {
+        events.add("class " + name + ' ' + superName);
+      }
+
+
+      @Override
+      public void visitSource(String source, String debug) {
+        events.add("source " + source);
+      }
+
+
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return record(events, "class-annotation", descriptor, visible);
+      }
+
+
+      @Override
+      public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value)
+      {
+        events.add("field " + name + ' ' + descriptor);
+
+        return new FieldVisitor(ASM9) {
+          @Override
+          public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return record(events, "field-annotation", descriptor, visible);
+          }
+        };
+      }
+
+
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                       String[] exceptions)
+      {
+        events.add("method " + name + descriptor);
+
+        return new MethodVisitor(ASM9) {
+          @Override
+          public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return record(events, "method-annotation", descriptor, visible);
+          }
+
+
+          @Override
+          public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            return record(events, "parameter-annotation " + parameter, descriptor, visible);
+          }
+
+
+          @Override
+          public void visitInsn(int opcode) {
+            events.add("insn " + opcode);
+          }
+
+
+          @Override
+          public void visitVarInsn(int opcode, int varIndex) {
+            events.add("insn " + opcode + ' ' + varIndex);
+          }
+
+
+          @Override
+          public void visitLineNumber(int line, Label start) {
+            events.add("line " + line);
+          }
+
+
+          @Override
+          public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end,
+                                         int index)
+          {
+            events.add("local " + name + ' ' + descriptor + ' ' + index);
+          }
+
+
+          @Override
+          public void visitMaxs(int maxStack, int maxLocals) {
+            events.add("maxs " + maxStack + ' ' + maxLocals);
+          }
+        };
+      }
+    }, 0);
+
+    return events;
+  }
+
+
+  private static AnnotationVisitor record(@NotNull List<String> events, @NotNull String kind,
+                                          @NotNull String descriptor, boolean visible)
+  {
+    events.add(kind + ' ' + descriptor + (visible ? " visible" : " invisible"));
+    return null;
+  }
+}
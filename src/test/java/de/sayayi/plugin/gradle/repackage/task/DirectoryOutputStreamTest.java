@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Directory output stream")
+class DirectoryOutputStreamTest
+{
+  @TempDir File tempDir;
+
+
+  @ParameterizedTest(name = "{0}")
+  @DisplayName("Reject entries outside of the output directory")
+  @ValueSource(strings = { "../evil.txt", "org/../../evil.txt", "/tmp/evil.txt" })
+  void testRejectOutsideEntry(String name) throws IOException
+  {
+    val directory = new File(tempDir, "output");
+
+    try(val directoryOutputStream = new DirectoryOutputStream(directory, null, MemoryBudget.UNLIMITED)) {
+      directoryOutputStream.putNextEntry(new ZipEntry(name));
+      directoryOutputStream.write("evil".getBytes(UTF_8));
+
+      assertThrows(IOException.class, directoryOutputStream::closeEntry);
+    }
+
+    assertFalse(new File(tempDir, "evil.txt").exists());
+  }
+
+
+  @ParameterizedTest(name = "spill = {0}")
+  @DisplayName("Keep files with unchanged content")
+  @ValueSource(booleans = { false, true })
+  void testKeepUnchangedFiles(boolean spill) throws IOException
+  {
+    val directory = new File(tempDir, "output");
+    val spillDirectory = new File(tempDir, "spill");
+    val memoryBudget = spill ? new MemoryBudget(0, spillDirectory) : MemoryBudget.UNLIMITED;
+
+    assertTrue(spillDirectory.mkdir());
+    assertTrue(write(directory, memoryBudget, "same content", "old content"));
+
+    val unchangedFile = new File(directory, "org/example/unchanged.txt");
+    val changedFile = new File(directory, "org/example/changed.txt");
+    val lastModified = unchangedFile.lastModified() - 60_000;
+
+    assertTrue(unchangedFile.setLastModified(lastModified));
+    assertTrue(changedFile.setLastModified(lastModified));
+
+    // same size, different content
+    assertTrue(write(directory, memoryBudget, "same content", "new content"));
+    assertEquals(lastModified, unchangedFile.lastModified());
+    assertEquals("new content", readString(changedFile.toPath()));
+
+    assertFalse(write(directory, memoryBudget, "same content", "new content"));
+
+    // spill files are deleted once the entries have been written
+    assertArrayEquals(new String[0], spillDirectory.list());
+  }
+
+
+  private static boolean write(@NotNull File directory, @NotNull MemoryBudget memoryBudget,
+                               @NotNull String unchangedContent, @NotNull String changedContent) throws IOException
+  {
+    try(val directoryOutputStream = new DirectoryOutputStream(directory, null, memoryBudget)) {
+      directoryOutputStream.putNextEntry(new ZipEntry("org/example/unchanged.txt"));
+      directoryOutputStream.write(unchangedContent.getBytes(UTF_8));
+      directoryOutputStream.putNextEntry(new ZipEntry("org/example/changed.txt"));
+      directoryOutputStream.write(changedContent.getBytes(UTF_8));
+      directoryOutputStream.finish();
+
+      return directoryOutputStream.isChanged();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import lombok.val;
+import org.gradle.api.tasks.util.PatternSet;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static de.sayayi.plugin.gradle.repackage.task.StringRelocation.CLASSES_AND_PATHS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Relocator remapper")
+class RelocatorRemapperTest
+{
+  private static final List<Relocator> RELOCATORS =
+      List.of(new DefaultRelocator("org.example", "shaded.example"));
+
+  @TempDir File tempDir;
+
+  private RelocatorRemapper closedWorldRemapper;
+
+
+  @BeforeEach
+  void createRemapper() throws IOException
+  {
+    val relocationPlan = RelocationPlan.create(new InputInventory(List.of(createInputJar())),
+        new PatternSet().getAsSpec(), new RelocatorRemapper(RELOCATORS, CLASSES_AND_PATHS), true, false);
+
+    closedWorldRemapper = new RelocatorRemapper(RELOCATORS, CLASSES_AND_PATHS, relocationPlan);
+  }
+
+
+  @ParameterizedTest(name = "{0}")
+  @DisplayName("Relocate string values in a closed world")
+  @CsvSource({
+      "org.example.Foo,          shaded.example.Foo",
+      "org/example/Foo,          shaded/example/Foo",
+      "Lorg/example/Foo;,        Lshaded/example/Foo;",
+      "[Lorg/example/Foo;,       [Lshaded/example/Foo;",
+      "org/example/Foo.class,    shaded/example/Foo.class",
+      "org/example/config.xml,   shaded/example/config.xml",
+      "/org/example/config.xml,  /shaded/example/config.xml",
+      "org/example/Missing,      org/example/Missing",
+      "Lorg/example/Missing;,    Lorg/example/Missing;"
+  })
+  void testMapValueClosedWorld(String value, String expected) {
+    assertEquals(expected, closedWorldRemapper.mapValue(value));
+  }
+
+
+  private @NotNull File createInputJar() throws IOException
+  {
+    val inputJar = new File(tempDir, "input.jar");
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar))) {
+      jarOutputStream.putNextEntry(new JarEntry("org/example/Foo.class"));
+      jarOutputStream.write(new byte[] { (byte)0xca, (byte)0xfe, (byte)0xba, (byte)0xbe });
+      jarOutputStream.putNextEntry(new JarEntry("org/example/config.xml"));
+      jarOutputStream.write("<config/>".getBytes());
+      jarOutputStream.closeEntry();
+    }
+
+    return inputJar;
+  }
+}
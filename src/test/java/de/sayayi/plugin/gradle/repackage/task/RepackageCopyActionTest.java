@@ -0,0 +1,360 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
+import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.gradle.api.GradleException;
+import org.gradle.api.tasks.util.PatternSet;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.jboss.jandex.DotName;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexReader;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.jar.JarOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAllBytes;
+import static java.util.Objects.requireNonNull;
+import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
+import static java.util.jar.Attributes.Name.MULTI_RELEASE;
+import static java.util.stream.Collectors.toList;
+import static org.gradle.api.tasks.bundling.ZipEntryCompression.DEFLATED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.V11;
+import static org.objectweb.asm.Opcodes.V17;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.objectweb.asm.Opcodes.V9;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Repackage copy action")
+class RepackageCopyActionTest
+{
+  @TempDir File tempDir;
+
+
+  @Test
+  @DisplayName("Reproducible mode creates identical jars")
+  void testReproducible() throws Exception
+  {
+    val inputJar = createInputJar();
+    val jar1 = new File(tempDir, "out1.jar");
+    val jar2 = new File(tempDir, "out2.jar");
+
+    createCopyAction(jar1, true).execute(List.of(inputJar));
+
+    // zip entry times have a resolution of 2 seconds
+    Thread.sleep(2100);
+
+    createCopyAction(jar2, true).execute(List.of(inputJar));
+
+    assertArrayEquals(readAllBytes(jar1.toPath()), readAllBytes(jar2.toPath()));
+  }
+
+
+  @Test
+  @DisplayName("Unchanged jar is kept")
+  void testUnchangedJarIsKept() throws Exception
+  {
+    val inputJar = createInputJar();
+    val jar = new File(tempDir, "out.jar");
+
+    assertTrue(createCopyAction(jar, false).execute(List.of(inputJar)).getDidWork());
+
+    val lastModified = jar.lastModified() - 60_000;
+    assertTrue(jar.setLastModified(lastModified));
+
+    // zip entry times have a resolution of 2 seconds
+    Thread.sleep(2100);
+
+    assertFalse(createCopyAction(jar, false).execute(List.of(inputJar)).getDidWork());
+    assertEquals(lastModified, jar.lastModified());
+  }
+
+
+  @Test
+  @DisplayName("Last wins takes duplicate entries from the last archive")
+  void testDuplicateLastWins() throws Exception
+  {
+    val inputJars = List.of(
+        createResourceJar("a.jar", "first"),
+        createResourceJar("b.jar", "middle"),
+        createResourceJar("c.jar", "last"));
+    val jar = new File(tempDir, "out.jar");
+
+    createCopyAction(jar, DuplicateStrategy.LAST_WINS, inputJars).execute(inputJars);
+
+    assertEquals("last", readResource(jar));
+  }
+
+
+  @Test
+  @DisplayName("Warn on conflict takes conflicting duplicate entries from the first archive")
+  void testDuplicateWarnOnConflict() throws Exception
+  {
+    val inputJars = List.of(createResourceJar("a.jar", "first"), createResourceJar("b.jar", "second"));
+    val jar = new File(tempDir, "out.jar");
+
+    assertTrue(createCopyAction(jar, DuplicateStrategy.WARN_ON_CONFLICT, inputJars)
+        .execute(inputJars).getDidWork());
+
+    assertEquals("first", readResource(jar));
+  }
+
+
+  @Test
+  @DisplayName("Fail on conflict fails for duplicate entries with different content")
+  void testDuplicateFailOnConflict() throws Exception
+  {
+    val inputJars = List.of(createResourceJar("a.jar", "first"), createResourceJar("b.jar", "second"));
+    val jar = new File(tempDir, "out.jar");
+    val copyAction = createCopyAction(jar, DuplicateStrategy.FAIL_ON_CONFLICT, inputJars);
+
+    val exception = assertThrows(GradleException.class, () -> copyAction.execute(inputJars));
+
+    assertTrue(exception.getCause().getMessage().contains("org/example/resource.txt in a.jar, b.jar"));
+    assertFalse(jar.exists());
+  }
+
+
+  @Test
+  @DisplayName("Fail on conflict compares duplicate entries with the same checksum and size")
+  void testDuplicateSameChecksumAndSize() throws Exception
+  {
+    // both strings have the same size and CRC-32 checksum
+    val inputJars = List.of(createResourceJar("a.jar", "plumless"), createResourceJar("b.jar", "buckeroo"));
+    val identicalJars = List.of(createResourceJar("c.jar", "plumless"), createResourceJar("d.jar", "plumless"));
+    val jar = new File(tempDir, "out.jar");
+
+    assertThrows(GradleException.class, () ->
+        createCopyAction(jar, DuplicateStrategy.FAIL_ON_CONFLICT, inputJars).execute(inputJars));
+
+    createCopyAction(jar, DuplicateStrategy.FAIL_ON_CONFLICT, identicalJars).execute(identicalJars);
+
+    assertEquals("plumless", readResource(jar));
+  }
+
+
+  @Test
+  @DisplayName("Flatten multi-release jar for the target release")
+  void testFlattenMultiRelease() throws Exception
+  {
+    val inputJar = new File(tempDir, "multi-release.jar");
+    val manifest = new Manifest();
+
+    manifest.getMainAttributes().put(MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(MULTI_RELEASE, "true");
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar), manifest)) {
+      jarOutputStream.putNextEntry(new JarEntry("org/example/Foo.class"));
+      jarOutputStream.write(createClass("org/example/Foo", V1_8));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/versions/9/org/example/Foo.class"));
+      jarOutputStream.write(createClass("org/example/Foo", V9));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/versions/11/org/example/Foo.class"));
+      jarOutputStream.write(createClass("org/example/Foo", V11));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/versions/17/org/example/Foo.class"));
+      jarOutputStream.write(createClass("org/example/Foo", V17));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/versions/9/module-info.class"));
+      jarOutputStream.write(createClass("module-info", V9));
+      jarOutputStream.closeEntry();
+    }
+
+    val jar = new File(tempDir, "out.jar");
+
+    createCopyActionBuilder(jar, false).targetRelease(11).build().execute(List.of(inputJar));
+
+    try(val jarFile = new JarFile(jar)) {
+      val names = jarFile.stream()
+          .map(JarEntry::getName)
+          .filter(name -> !name.endsWith("/"))
+          .collect(toList());
+
+      assertEquals(List.of("META-INF/MANIFEST.MF", "shaded/example/Foo.class"), names);
+
+      // class file major version of the selected variant
+      val classBytes = jarFile.getInputStream(jarFile.getEntry("shaded/example/Foo.class")).readAllBytes();
+      assertEquals(V11, ((classBytes[6] & 0xff) << 8) | (classBytes[7] & 0xff));
+
+      val mainAttributes = requireNonNull(jarFile.getManifest()).getMainAttributes();
+      assertNull(mainAttributes.get(MULTI_RELEASE));
+      assertEquals("1.0", mainAttributes.get(MANIFEST_VERSION));
+    }
+  }
+
+
+  @Test
+  @DisplayName("Write class index with relocated names and drop stale index")
+  void testClassIndex() throws Exception
+  {
+    val inputJar = new File(tempDir, "indexed.jar");
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar))) {
+      jarOutputStream.putNextEntry(new JarEntry("org/example/Foo.class"));
+      jarOutputStream.write(createClass("org/example/Foo"));
+      jarOutputStream.putNextEntry(new JarEntry("org/example/Bar.class"));
+      jarOutputStream.write(createClass("org/example/Bar"));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/jandex.idx"));
+      jarOutputStream.write("stale index".getBytes(UTF_8));
+      jarOutputStream.closeEntry();
+    }
+
+    val jar = new File(tempDir, "out.jar");
+
+    createCopyActionBuilder(jar, false).jandexIndex(true).build().execute(List.of(inputJar));
+
+    try(val jarFile = new JarFile(jar)) {
+      assertEquals(1, jarFile.stream().filter(entry -> entry.getName().equals("META-INF/jandex.idx")).count());
+
+      Index index;
+
+      try(val inputStream = jarFile.getInputStream(jarFile.getEntry("META-INF/jandex.idx"))) {
+        index = new IndexReader(inputStream).read();
+      }
+
+      assertEquals(List.of("shaded.example.Bar", "shaded.example.Foo"), index.getKnownClasses().stream()
+          .map(classInfo -> classInfo.name().toString())
+          .sorted()
+          .collect(toList()));
+      assertNotNull(index.getClassByName(DotName.createSimple("shaded.example.Foo")));
+      assertNull(index.getClassByName(DotName.createSimple("org.example.Foo")));
+    }
+  }
+
+
+  private @NotNull File createResourceJar(@NotNull String name, @NotNull String content) throws IOException
+  {
+    val inputJar = new File(tempDir, name);
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar))) {
+      jarOutputStream.putNextEntry(new JarEntry("org/example/resource.txt"));
+      jarOutputStream.write(content.getBytes(UTF_8));
+      jarOutputStream.closeEntry();
+    }
+
+    return inputJar;
+  }
+
+
+  private static @NotNull String readResource(@NotNull File jar) throws IOException
+  {
+    try(val jarFile = new JarFile(jar)) {
+      return new String(jarFile.getInputStream(jarFile.getEntry("shaded/example/resource.txt")).readAllBytes(),
+          UTF_8);
+    }
+  }
+
+
+  private @NotNull File createInputJar() throws IOException
+  {
+    val inputJar = new File(tempDir, "input.jar");
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar))) {
+      jarOutputStream.putNextEntry(new JarEntry("org/example/Service.class"));
+      jarOutputStream.write(createClass("org/example/Service"));
+      jarOutputStream.putNextEntry(new JarEntry("org/example/ServiceImpl.class"));
+      jarOutputStream.write(createClass("org/example/ServiceImpl"));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/services/org.example.Service"));
+      jarOutputStream.write("org.example.ServiceImpl\n".getBytes(UTF_8));
+      jarOutputStream.closeEntry();
+    }
+
+    return inputJar;
+  }
+
+
+  private static @NotNull byte[] createClass(@NotNull String internalName) {
+    return createClass(internalName, V11);
+  }
+
+
+  private static @NotNull byte[] createClass(@NotNull String internalName, int version)
+  {
+    val classWriter = new ClassWriter(0);
+
+    classWriter.visit(version, ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    classWriter.visitEnd();
+
+    return classWriter.toByteArray();
+  }
+
+
+  private @NotNull RepackageCopyAction createCopyAction(@NotNull File jarFile, boolean reproducible) {
+    return createCopyActionBuilder(jarFile, reproducible).build();
+  }
+
+
+  private @NotNull RepackageCopyAction createCopyAction(@NotNull File jarFile,
+                                                        @NotNull DuplicateStrategy duplicateStrategy,
+                                                        @NotNull List<File> sourceFiles)
+  {
+    return createCopyActionBuilder(jarFile, false)
+        .duplicateStrategy(duplicateStrategy)
+        .sourceFiles(sourceFiles)
+        .build();
+  }
+
+
+  private @NotNull RepackageCopyAction.RepackageCopyActionBuilder createCopyActionBuilder(@NotNull File jarFile,
+                                                                                          boolean reproducible)
+  {
+    val project = ProjectBuilder.builder().withProjectDir(tempDir).build();
+
+    return RepackageCopyAction.builder()
+        .verbose(false)
+        .jarFile(jarFile)
+        .zipEntryCompression(DEFLATED)
+        .transformers(new ArrayList<Transformer>(List.of(new ServiceFileTransformer())))
+        .relocators(List.<Relocator>of(new DefaultRelocator("org.example", "shaded.example")))
+        .patternSet(new PatternSet())
+        .reproducible(reproducible)
+        .directoryEntries(true)
+        .stringRelocation(StringRelocation.CLASSES_AND_PATHS)
+        .compressionSelector(new CompressionSelector(project.getObjects().newInstance(CompressionPolicy.class)))
+        .memoryBudget(MemoryBudget.UNLIMITED)
+        .strip(Set.of())
+        .stripAnnotations(Set.of())
+        .archiveWriterType(ArchiveWriterType.CHANNEL)
+        .duplicateStrategy(DuplicateStrategy.FIRST_WINS);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.transformer.ServiceFileTransformer;
+import de.sayayi.plugin.gradle.repackage.transformer.Transformer;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.gradle.api.Project;
+import org.gradle.api.internal.DocumentationRegistry;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.internal.file.copy.CopyActionExecuter;
+import org.gradle.api.internal.file.copy.DefaultCopySpec;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.tasks.util.PatternSet;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.reflect.Instantiator;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.writeString;
+import static org.gradle.api.file.DuplicatesStrategy.EXCLUDE;
+import static org.gradle.api.tasks.bundling.ZipEntryCompression.DEFLATED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.V11;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Shared read copy action")
+class SharedReadCopyActionTest
+{
+  @TempDir File tempDir;
+
+
+  @Test
+  @DisplayName("Variants created in one run equal separately created jars")
+  void testVariantsEqualSeparateRuns() throws Exception
+  {
+    val project = ProjectBuilder.builder().withProjectDir(tempDir).build();
+    val sourceFiles = List.of(
+        createInputJar("a.jar", "org/example/Service", "first"),
+        createInputJar("b.jar", "org/example/ServiceImpl", "last"));
+    val classLoadOrderFile = new File(tempDir, "classes.lst");
+
+    writeString(classLoadOrderFile.toPath(), "org/example/ServiceImpl\norg/example/Service\n");
+
+    val sharedJar1 = new File(tempDir, "shared1.jar");
+    val sharedJar2 = new File(tempDir, "shared2.jar");
+    val separateJar1 = new File(tempDir, "separate1.jar");
+    val separateJar2 = new File(tempDir, "separate2.jar");
+
+    execute(project, sourceFiles, new SharedReadCopyAction(List.of(
+        createCopyAction(project, sharedJar1, "shaded.one", sourceFiles, classLoadOrderFile),
+        createCopyAction(project, sharedJar2, "shaded.two", sourceFiles, classLoadOrderFile)), true));
+
+    execute(project, sourceFiles,
+        createCopyAction(project, separateJar1, "shaded.one", sourceFiles, classLoadOrderFile));
+    execute(project, sourceFiles,
+        createCopyAction(project, separateJar2, "shaded.two", sourceFiles, classLoadOrderFile));
+
+    assertArrayEquals(readAllBytes(separateJar1.toPath()), readAllBytes(sharedJar1.toPath()));
+    assertArrayEquals(readAllBytes(separateJar2.toPath()), readAllBytes(sharedJar2.toPath()));
+  }
+
+
+  private static void execute(@NotNull Project project, @NotNull List<File> sourceFiles,
+                              @NotNull CopyAction copyAction)
+  {
+    val services = ((ProjectInternal)project).getServices();
+    val objectFactory = project.getObjects();
+    val rootSpec = objectFactory.newInstance(DefaultCopySpec.class);
+
+    rootSpec.setCaseSensitive(true);
+    rootSpec.setIncludeEmptyDirs(false);
+    rootSpec.setDuplicatesStrategy(EXCLUDE);
+    rootSpec.from(sourceFiles);
+
+    new CopyActionExecuter(services.get(Instantiator.class), objectFactory, services.get(FileSystem.class), true,
+        services.get(DocumentationRegistry.class)).execute(rootSpec, copyAction);
+  }
+
+
+  private @NotNull File createInputJar(@NotNull String name, @NotNull String className,
+                                       @NotNull String resourceContent) throws IOException
+  {
+    val inputJar = new File(tempDir, name);
+
+    try(val jarOutputStream = new JarOutputStream(new FileOutputStream(inputJar))) {
+      jarOutputStream.putNextEntry(new JarEntry(className + ".class"));
+      jarOutputStream.write(createClass(className));
+      jarOutputStream.putNextEntry(new JarEntry("org/example/resource.txt"));
+      jarOutputStream.write(resourceContent.getBytes(UTF_8));
+      jarOutputStream.putNextEntry(new JarEntry("META-INF/services/org.example.Service"));
+      jarOutputStream.write("org.example.ServiceImpl\n".getBytes(UTF_8));
+      jarOutputStream.closeEntry();
+    }
+
+    return inputJar;
+  }
+
+
+  private static @NotNull byte[] createClass(@NotNull String internalName)
+  {
+    val classWriter = new ClassWriter(0);
+
+    classWriter.visit(V11, ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    classWriter.visitEnd();
+
+    return classWriter.toByteArray();
+  }
+
+
+  private static @NotNull RepackageCopyAction createCopyAction(@NotNull Project project, @NotNull File jarFile,
+                                                               @NotNull String relocatedPackage,
+                                                               @NotNull List<File> sourceFiles,
+                                                               @NotNull File classLoadOrderFile)
+  {
+    return RepackageCopyAction.builder()
+        .verbose(false)
+        .jarFile(jarFile)
+        .zipEntryCompression(DEFLATED)
+        .transformers(new ArrayList<Transformer>(List.of(new ServiceFileTransformer())))
+        .relocators(List.<Relocator>of(new DefaultRelocator("org.example", relocatedPackage)))
+        .patternSet(new PatternSet())
+        .reproducible(true)
+        .directoryEntries(true)
+        .classLoadOrderFile(classLoadOrderFile)
+        .stringRelocation(StringRelocation.CLASSES_AND_PATHS)
+        .compressionSelector(new CompressionSelector(project.getObjects().newInstance(CompressionPolicy.class)))
+        .memoryBudget(MemoryBudget.UNLIMITED)
+        .strip(Set.of())
+        .stripAnnotations(Set.of())
+        .sourceFiles(sourceFiles)
+        .closedWorld(true)
+        .archiveWriterType(ArchiveWriterType.CHANNEL)
+        .duplicateStrategy(DuplicateStrategy.LAST_WINS)
+        .build();
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.task;
+
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.apache.tools.zip.ZipEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.util.Random;
+import java.util.zip.ZipFile;
+
+import static org.apache.tools.zip.ZipOutputStream.DEFLATED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Write behind zip output stream")
+class WriteBehindZipOutputStreamTest
+{
+  @TempDir File tempDir;
+
+
+  @ParameterizedTest(name = "{0}")
+  @DisplayName("Entries exceeding the pending bytes limit are spilled")
+  @EnumSource(ArchiveWriterType.class)
+  void testSpilledEntry(ArchiveWriterType archiveWriterType) throws Exception
+  {
+    val archiveFile = new File(tempDir, "archive.zip");
+    val memoryBudget = new MemoryBudget(0, tempDir);
+    val small = new byte[100];
+    val large = new byte[100_000];
+
+    new Random(42).nextBytes(large);
+
+    try(val archiveWriter = archiveWriterType.createWriter(archiveFile, DEFLATED, memoryBudget);
+        val zipOutputStream = new WriteBehindZipOutputStream(archiveWriter, 4096, memoryBudget)) {
+      zipOutputStream.putNextEntry(new ZipEntry("small1.bin"));
+      zipOutputStream.write(small);
+      zipOutputStream.putNextEntry(new ZipEntry("large.bin"));
+      zipOutputStream.write(large, 0, 1000);
+      zipOutputStream.write(large, 1000, large.length - 1000);
+      zipOutputStream.putNextEntry(new ZipEntry("small2.bin"));
+      zipOutputStream.write(small);
+      zipOutputStream.finish();
+    }
+
+    try(val zipFile = new ZipFile(archiveFile)) {
+      assertEquals("small1.bin,large.bin,small2.bin", String.join(",",
+          zipFile.stream().map(java.util.zip.ZipEntry::getName).toArray(String[]::new)));
+      assertArrayEquals(large, zipFile.getInputStream(zipFile.getEntry("large.bin")).readAllBytes());
+      assertArrayEquals(small, zipFile.getInputStream(zipFile.getEntry("small2.bin")).readAllBytes());
+    }
+
+    // spill files are deleted once the entry has been written
+    assertArrayEquals(new String[] { "archive.zip" }, tempDir.list());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import lombok.val;
+import org.apache.tools.zip.ZipOutputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Plugin cache transformers")
+class PluginCacheTransformerTest
+{
+  private static final List<Relocator> RELOCATORS =
+      List.of(new DefaultRelocator("org.example", "shaded.example"));
+
+
+  @Test
+  @DisplayName("Merge and relocate Log4j2 plugin caches")
+  void testLog4j2Plugins() throws IOException
+  {
+    val transformer = new Log4j2PluginsTransformer();
+    val path = Log4j2PluginsTransformer.PLUGIN_CACHE_FILE;
+
+    transformer.transform(new TransformerContext(path, log4j2Cache("Core", "a", "org.example.A"), RELOCATORS));
+    transformer.transform(new TransformerContext(path, log4j2Cache("core", "a", "org.example.X"), RELOCATORS));
+    transformer.transform(new TransformerContext(path, log4j2Cache("core", "b", "org.other.B"), RELOCATORS));
+
+    val in = new DataInputStream(new ByteArrayInputStream(writeEntries(transformer).get(path)));
+
+    assertEquals(1, in.readInt());
+    assertEquals("core", in.readUTF());
+    assertEquals(2, in.readInt());
+    assertEquals("a", in.readUTF());
+    assertEquals("shaded.example.A", in.readUTF());
+    in.readUTF();
+    in.readBoolean();
+    in.readBoolean();
+    assertEquals("b", in.readUTF());
+    assertEquals("org.other.B", in.readUTF());
+  }
+
+
+  @Test
+  @DisplayName("Merge and relocate spring.factories")
+  void testSpringFactories() throws IOException
+  {
+    val transformer = new SpringFactoriesTransformer();
+    val path = "META-INF/spring.factories";
+
+    transformer.transform(new TransformerContext(path, text("org.example.Factory=org.example.A,\\\n org.x.B\n"),
+        RELOCATORS));
+    transformer.transform(new TransformerContext(path, text("org.example.Factory=org.example.A,org.x.C\n"),
+        RELOCATORS));
+
+    assertEquals("shaded.example.Factory=shaded.example.A,\\\n  org.x.B,\\\n  org.x.C\n",
+        new String(writeEntries(transformer).get(path), ISO_8859_1));
+  }
+
+
+  @Test
+  @DisplayName("Merge and relocate spring imports")
+  void testSpringImports() throws IOException
+  {
+    val transformer = new SpringImportsTransformer();
+
+    transformer.transform(new TransformerContext("META-INF/spring/org.example.AutoConfiguration.imports",
+        text("# comment\norg.example.A\norg.x.B\n"), RELOCATORS));
+    transformer.transform(new TransformerContext("META-INF/spring/org.example.AutoConfiguration.imports",
+        text("org.x.B\norg.x.C\n"), RELOCATORS));
+
+    assertEquals("shaded.example.A\norg.x.B\norg.x.C\n", new String(writeEntries(transformer)
+        .get("META-INF/spring/shaded.example.AutoConfiguration.imports"), ISO_8859_1));
+  }
+
+
+  private static InputStream log4j2Cache(String category, String key, String className) throws IOException
+  {
+    val bytes = new ByteArrayOutputStream();
+
+    try(val out = new DataOutputStream(bytes)) {
+      out.writeInt(1);
+      out.writeUTF(category);
+      out.writeInt(1);
+      out.writeUTF(key);
+      out.writeUTF(className);
+      out.writeUTF(key);
+      out.writeBoolean(true);
+      out.writeBoolean(false);
+    }
+
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+
+  private static InputStream text(String text) {
+    return new ByteArrayInputStream(text.getBytes(ISO_8859_1));
+  }
+
+
+  private static Map<String,byte[]> writeEntries(Transformer transformer) throws IOException
+  {
+    val bytes = new ByteArrayOutputStream();
+
+    try(val zipOutputStream = new ZipOutputStream(bytes)) {
+      transformer.modifyOutputStream(zipOutputStream);
+    }
+
+    val entries = new HashMap<String,byte[]>();
+
+    try(val zipInputStream = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      for(var entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry())
+        entries.put(entry.getName(), zipInputStream.readAllBytes());
+    }
+
+    return entries;
+  }
+}
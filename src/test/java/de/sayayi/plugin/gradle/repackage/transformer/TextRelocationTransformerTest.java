@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.plugin.gradle.repackage.transformer;
+
+import de.sayayi.plugin.gradle.repackage.relocator.DefaultRelocator;
+import de.sayayi.plugin.gradle.repackage.relocator.Relocator;
+import de.sayayi.plugin.gradle.repackage.util.MemoryBudget;
+import lombok.val;
+import org.apache.tools.zip.ZipOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Text relocation transformer")
+class TextRelocationTransformerTest
+{
+  private static final List<Relocator> RELOCATORS = List.of(
+      new DefaultRelocator("org.example", "shaded.example"),
+      new DefaultRelocator("com.acme", "shaded.acme"));
+
+  @TempDir File tempDir;
+
+
+  @Test
+  @DisplayName("Relocate class names and paths in text")
+  void testRelocateText() throws IOException
+  {
+    assertEquals(
+        "<bean class=\"shaded.example.Foo\" res=\"classpath:shaded/acme/x.xml\"/>\n" +
+        "key=shaded.acme.Bar,org.other.Baz\n" +
+        "x.org.example.Foo, Zürich shaded.example.Foo$Inner",
+        relocate(
+            "<bean class=\"org.example.Foo\" res=\"classpath:com/acme/x.xml\"/>\n" +
+            "key=com.acme.Bar,org.other.Baz\n" +
+            "x.org.example.Foo, Zürich org.example.Foo$Inner", MemoryBudget.UNLIMITED));
+  }
+
+
+  @Test
+  @DisplayName("Relocate text exceeding the memory budget")
+  void testRelocateSpilledText() throws IOException
+  {
+    assertEquals(
+        "<bean class=\"shaded.example.Foo\"/>\n".repeat(10_000),
+        relocate("<bean class=\"org.example.Foo\"/>\n".repeat(10_000), new MemoryBudget(0, tempDir)));
+
+    // the spill file is deleted once the resource has been written
+    assertArrayEquals(new String[0], tempDir.list());
+  }
+
+
+  @Test
+  @DisplayName("Relocate nested patterns using the first configured relocator")
+  void testRelocateNestedPatterns() throws IOException
+  {
+    val innerRelocator = new DefaultRelocator("org.example.sub", "inner.sub");
+    val outerRelocator = new DefaultRelocator("org.example", "outer.example");
+
+    assertEquals("inner.sub.A outer.example.B inner/sub/c.xml",
+        relocate("org.example.sub.A org.example.B org/example/sub/c.xml",
+            List.of(innerRelocator, outerRelocator), MemoryBudget.UNLIMITED));
+    assertEquals("outer.example.sub.A outer.example.B outer/example/sub/c.xml",
+        relocate("org.example.sub.A org.example.B org/example/sub/c.xml",
+            List.of(outerRelocator, innerRelocator), MemoryBudget.UNLIMITED));
+  }
+
+
+  @Test
+  @DisplayName("Relocate names using only the relocators with a matching pattern")
+  void testRelocateMatchingRelocatorsOnly() throws IOException
+  {
+    val calls = new AtomicInteger();
+    val countingRelocator = new DefaultRelocator("com.acme", "shaded.acme") {
+      @Override
+      public @Nullable String tryRelocateClass(@NotNull String className)
+      {
+        calls.incrementAndGet();
+        return super.tryRelocateClass(className);
+      }
+
+
+      @Override
+      public @Nullable String tryRelocatePath(@NotNull String path)
+      {
+        calls.incrementAndGet();
+        return super.tryRelocatePath(path);
+      }
+    };
+    val relocators = List.<Relocator>of(new DefaultRelocator("org.example", "shaded.example"), countingRelocator);
+
+    assertEquals("shaded.example.Foo shaded/example/x.xml",
+        relocate("org.example.Foo org/example/x.xml", relocators, MemoryBudget.UNLIMITED));
+    assertEquals(0, calls.get());
+
+    assertEquals("shaded.acme.Bar shaded/acme/y.xml",
+        relocate("com.acme.Bar com/acme/y.xml", relocators, MemoryBudget.UNLIMITED));
+    assertEquals(2, calls.get());
+  }
+
+
+  private static String relocate(String text, MemoryBudget memoryBudget) throws IOException {
+    return relocate(text, RELOCATORS, memoryBudget);
+  }
+
+
+  private static String relocate(String text, List<Relocator> relocators, MemoryBudget memoryBudget)
+      throws IOException
+  {
+    val transformer = new TextRelocationTransformer().include("**/*.xml");
+
+    transformer.transform(new TransformerContext("test.xml", new ByteArrayInputStream(text.getBytes(UTF_8)),
+        relocators, memoryBudget));
+
+    val bytes = new ByteArrayOutputStream();
+
+    try(val zipOutputStream = new ZipOutputStream(bytes)) {
+      transformer.modifyOutputStream(zipOutputStream);
+    }
+
+    try(val zipInputStream = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      zipInputStream.getNextEntry();
+      return new String(zipInputStream.readAllBytes(), UTF_8);
+    }
+  }
+}